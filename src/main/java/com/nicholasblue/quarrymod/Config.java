@@ -44,14 +44,20 @@ public class Config {
         public final ForgeConfigSpec.IntValue DIFFICULTY3_INTERMEDIATE_REPEATER_LENGTH;
         public final ForgeConfigSpec.IntValue DIFFICULTY3_ADVANCED_REPEATER_LENGTH;
         public final ForgeConfigSpec.IntValue BASE_MINING_SPEED;
+        public final ForgeConfigSpec.IntValue TICK_BUDGET_NANOS;
+        public final ForgeConfigSpec.BooleanValue BATCH_CLIENT_UPDATES;
 
         public final ForgeConfigSpec.IntValue UPGRADE1_SPEED_PER_UNIT;
         public final ForgeConfigSpec.DoubleValue UPGRADE1_COST_MULTIPLIER_PER_UNIT;
         public final ForgeConfigSpec.IntValue UPGRADE1_COST_OFFSET_PER_UNIT;
+        public final ForgeConfigSpec.IntValue UPGRADE1_MAX_UNITS;
 
         public final ForgeConfigSpec.IntValue UPGRADE2_SPEED_PER_UNIT;
         public final ForgeConfigSpec.DoubleValue UPGRADE2_COST_MULTIPLIER_PER_UNIT;
         public final ForgeConfigSpec.IntValue UPGRADE2_COST_OFFSET_PER_UNIT;
+        public final ForgeConfigSpec.IntValue UPGRADE2_MAX_UNITS;
+
+        public final ItemHandlingConfig ITEM_HANDLING;
 
 
 
@@ -77,19 +83,25 @@ public class Config {
             DIFFICULTY3_INTERMEDIATE_REPEATER_LENGTH = defineDifficulty3Intermediate(builder);
             DIFFICULTY3_ADVANCED_REPEATER_LENGTH = defineDifficulty3Advanced(builder);
             BASE_MINING_SPEED = defineBaseMiningSpeed(builder);
+            TICK_BUDGET_NANOS = defineTickBudget(builder);
+            BATCH_CLIENT_UPDATES = defineBatchClientUpdates(builder);
 
             UPGRADE1_SPEED_PER_UNIT = defineUpgrade1Speed(builder);
             UPGRADE1_COST_MULTIPLIER_PER_UNIT = defineUpgrade1Multiplier(builder);
             UPGRADE1_COST_OFFSET_PER_UNIT = defineUpgrade1Offset(builder);
+            UPGRADE1_MAX_UNITS = defineUpgradeMaxUnits(builder, 1);
 
             UPGRADE2_SPEED_PER_UNIT = defineUpgrade2Speed(builder);
             UPGRADE2_COST_MULTIPLIER_PER_UNIT = defineUpgrade2Multiplier(builder);
             UPGRADE2_COST_OFFSET_PER_UNIT = defineUpgrade2Offset(builder);
+            UPGRADE2_MAX_UNITS = defineUpgradeMaxUnits(builder, 2);
 
 
 
 
             builder.pop();
+
+            ITEM_HANDLING = new ItemHandlingConfig(builder);
         }
 
         private static ForgeConfigSpec.IntValue defineBaseMiningSpeed(ForgeConfigSpec.Builder builder) {
@@ -121,6 +133,39 @@ public class Config {
                     .defineInRange("baseMiningSpeed", 10, 1, 100_000);
         }
 
+        private static ForgeConfigSpec.IntValue defineTickBudget(ForgeConfigSpec.Builder builder) {
+            return builder
+                    .comment("""
+            Hard ceiling, in nanoseconds, on the time all quarries together may spend per server tick.
+
+            Once the budget is spent, remaining quarries wait for the next tick and run first
+            then, so none is starved. Speed a quarry could not use while waiting is kept as
+            credit and spent later.
+
+            A server tick is 50 ms (50,000,000 ns). Lower this if quarries compete with
+            other heavy mods for tick time; raise it if quarries fall behind their speed.
+
+            Range: 100,000–50,000,000
+            Default: 10,000,000 (10 ms)
+            """)
+                    .defineInRange("tickBudgetNanos", 10_000_000, 100_000, 50_000_000);
+        }
+
+        private static ForgeConfigSpec.BooleanValue defineBatchClientUpdates(ForgeConfigSpec.Builder builder) {
+            return builder
+                    .comment("""
+            Send the blocks quarries mine to players as one update packet per chunk section per tick.
+
+            When enabled, blocks mined inside a quarry's suppressed interior are collected for the
+            whole tick and sent as one section update per 16x16x16 section, naming only the
+            positions that changed. When disabled, every mined block is reported to the chunk
+            individually, as vanilla block changes are.
+
+            Default: true
+            """)
+                    .define("batchClientUpdates", true);
+        }
+
         private static ForgeConfigSpec.IntValue defineUpgrade1Speed(ForgeConfigSpec.Builder b) {
             return b
                     .comment("""
@@ -172,7 +217,7 @@ public class Config {
             Range: 1–100,000
             Default: 35
             """)
-                    .defineInRange("upgrade1SpeedPerUnit", 35, 1, 100_000);
+                    .defineInRange("upgrade2SpeedPerUnit", 35, 1, 100_000);
         }
 
         private static ForgeConfigSpec.DoubleValue defineUpgrade2Multiplier(ForgeConfigSpec.Builder b) {
@@ -184,7 +229,7 @@ public class Config {
 
             Default: 1.0 (cost grows linearly with speed)
             """)
-                    .defineInRange("upgrade1CostMultiplierPerUnit", 1.0, 0.0, 1000.0);
+                    .defineInRange("upgrade2CostMultiplierPerUnit", 1.0, 0.0, 1000.0);
         }
 
         private static ForgeConfigSpec.IntValue defineUpgrade2Offset(ForgeConfigSpec.Builder b) {
@@ -197,7 +242,19 @@ public class Config {
 
             Default: 0
             """)
-                    .defineInRange("upgrade1CostOffsetPerUnit", 0, -100_000, 100_000);
+                    .defineInRange("upgrade2CostOffsetPerUnit", 0, -100_000, 100_000);
+        }
+
+        private static ForgeConfigSpec.IntValue defineUpgradeMaxUnits(ForgeConfigSpec.Builder b, int tier) {
+            return b
+                    .comment("""
+            Most Upgrade %d units one quarry accepts. Using an upgrade on a quarry that already
+            holds this many does nothing and keeps the item.
+
+            Range: 0–64
+            Default: 8
+            """.formatted(tier))
+                    .defineInRange("upgrade" + tier + "MaxUnits", 8, 0, 64);
         }
 
 
@@ -4,6 +4,7 @@ import com.nicholasblue.quarrymod.QuarryMod;
 import com.nicholasblue.quarrymod.blockentity.QuarryBlockEntity;
 import com.nicholasblue.quarrymod.data.BlockIndexer;
 import com.nicholasblue.quarrymod.data.QuarryRuntimeState;
+import com.nicholasblue.quarrymod.item.ModItems;
 import com.nicholasblue.quarrymod.manager.CentralQuarryManager;
 import com.nicholasblue.quarrymod.menu.QuarryMenu;
 import com.nicholasblue.quarrymod.menu.QuarryMenuProvider;
@@ -16,6 +17,8 @@ import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.MenuProvider;
 import net.minecraft.world.SimpleMenuProvider;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.EntityBlock;               // ← pay attention to import
 import net.minecraft.world.level.block.Blocks;
@@ -54,7 +57,15 @@ public class QuarryBlock extends Block implements EntityBlock {
     @Override
     public InteractionResult use(BlockState state, Level world, BlockPos pos, Player player, InteractionHand hand, BlockHitResult hit) {
         if (!world.isClientSide && player instanceof ServerPlayer serverPlayer) {
-            System.out.println("[SERVER] openScreen called from thread: " + Thread.currentThread().getName());
+            ItemStack held = player.getItemInHand(hand);
+            int tier = held.is(ModItems.UPGRADE1.get()) ? 1 : held.is(ModItems.UPGRADE2.get()) ? 2 : 0;
+            if (tier != 0) {
+                if (CentralQuarryManager.INSTANCE.installUpgrade(pos, tier) && !player.getAbilities().instabuild) {
+                    held.shrink(1);
+                }
+                return InteractionResult.CONSUME;
+            }
+
             QuarryRuntimeState runtime = CentralQuarryManager.INSTANCE.getRuntimeState(pos);
             if (runtime == null) return InteractionResult.CONSUME;
 
@@ -107,6 +118,11 @@ public class QuarryBlock extends Block implements EntityBlock {
     @Override
     public void onRemove(BlockState pState, Level pLevel, BlockPos pPos, BlockState pNewState, boolean pIsMoving) {
         if (!pLevel.isClientSide && !pIsMoving && !pState.is(pNewState.getBlock())) {
+            QuarryRuntimeState runtime = CentralQuarryManager.INSTANCE.getRuntimeState(pPos);
+            if (runtime != null) { // hand back the installed upgrades
+                dropUpgrades(pLevel, pPos, ModItems.UPGRADE1.get(), runtime.getUpgrade1Units());
+                dropUpgrades(pLevel, pPos, ModItems.UPGRADE2.get(), runtime.getUpgrade2Units());
+            }
 
             CentralQuarryManager.INSTANCE.unregisterQuarry(pPos);
             QuarryMod.LOGGER.info("QuarryBlock at {} was removed. Unregistering from CQM.", pPos);
@@ -115,5 +131,13 @@ public class QuarryBlock extends Block implements EntityBlock {
         super.onRemove(pState, pLevel, pPos, pNewState, pIsMoving);
     }
 
+    private static void dropUpgrades(Level level, BlockPos pos, Item upgrade, int units) {
+        while (units > 0) {
+            int size = Math.min(upgrade.getMaxStackSize(), units);
+            Block.popResource(level, pos, new ItemStack(upgrade, size));
+            units -= size;
+        }
+    }
+
 
 }
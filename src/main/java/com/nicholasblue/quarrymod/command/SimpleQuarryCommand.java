@@ -6,6 +6,8 @@ import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import com.nicholasblue.quarrymod.QuarryMod;
 import com.nicholasblue.quarrymod.QuarryModClient;
+import com.nicholasblue.quarrymod.multiThreadedMadness.MultiThreadedCentralQuarryManager;
+import com.nicholasblue.quarrymod.multiThreadedMadness.PlanningModeController;
 import com.nicholasblue.quarrymod.network.QuarryNetwork;
 import com.nicholasblue.quarrymod.util.QuarryPlacementScheduler;
 import com.nicholasblue.quarrymod.util.RaycastUtil;
@@ -36,6 +38,7 @@ import java.util.List;
  * Hierarchy implemented so far:
  *   /simplequarry version
  *   /simplequarry debug blockindexer
+ *   /simplequarry debug planner
  *
  * Add additional sub-branches by writing more private builder methods and
  * wiring them into {@link #root()}.
@@ -80,7 +83,8 @@ public final class SimpleQuarryCommand {
                 .then(debugIdAtCursor())
                 .then(debugToggleSuppressionVisualizer())
                 .then(debugsimplePlaceQuarries())
-                .then(debugDelayedPlaceQuarries());
+                .then(debugDelayedPlaceQuarries())
+                .then(debugPlanner());
 
     }
 
@@ -97,6 +101,26 @@ public final class SimpleQuarryCommand {
                     return 1;
                 });
     }
+    /** /simplequarry debug planner */
+    private static LiteralArgumentBuilder<CommandSourceStack> debugPlanner() {
+        return Commands.literal("planner")
+                .executes(ctx -> {
+                    PlanningModeController c = MultiThreadedCentralQuarryManager.INSTANCE.planningController();
+                    double crossover = c.crossover();
+                    String crossoverText = Double.isInfinite(crossover)
+                            ? "never (single core)"
+                            : String.format("%.0f quarries", crossover);
+                    ctx.getSource().sendSuccess(
+                            () -> Component.literal(String.format(
+                                    "[SimpleQuarry] Planner mode %s (last pass %s) for %d quarries on %d threads. " +
+                                    "Cost/quarry %.1f ns, fork overhead %.0f ns, crossover %s.",
+                                    c.mode(), c.lastPassPooled() ? "pooled" : "serial", c.lastCount(), c.parallelism(),
+                                    c.costPerQuarryNanos(), c.overheadNanos(), crossoverText)),
+                            false
+                    );
+                    return 1;
+                });
+    }
     /** /simplequarry debug id_of_block <namespace:id> */
     private static LiteralArgumentBuilder<CommandSourceStack> debugIdOfBlock() {
         return Commands.literal("id_of_block")
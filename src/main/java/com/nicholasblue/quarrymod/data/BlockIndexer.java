@@ -1,15 +1,21 @@
 package com.nicholasblue.quarrymod.data;
 
+import com.nicholasblue.quarrymod.util.ModTags;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import net.minecraft.core.BlockPos;
 import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.item.BlockItem;
 import net.minecraft.world.item.Item;
+import net.minecraft.world.entity.ai.village.poi.PoiTypes;
+import net.minecraft.world.level.EmptyBlockGetter;
 import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.item.Items;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -22,6 +28,11 @@ public final class BlockIndexer {
     // Internal maps will store and use int IDs
     private static final Int2ObjectOpenHashMap<Block> ID_TO_BLOCK_INT = new Int2ObjectOpenHashMap<>();
     private static final Object2IntOpenHashMap<ResourceLocation> BLOCK_TO_ID_INT = new Object2IntOpenHashMap<>();
+    // Identity lookup for the hot path: no registry key resolution, no key hashing beyond the reference
+    private static final Reference2IntOpenHashMap<Block> BLOCK_TO_ID = new Reference2IntOpenHashMap<>();
+    static {
+        BLOCK_TO_ID.defaultReturnValue(-1);
+    }
 
     //used to send to players
     private static Map<Integer, ResourceLocation> cachedIdMap;
@@ -36,6 +47,32 @@ public final class BlockIndexer {
     // We use -1 because valid assigned IDs are >= 0
     public static final short SHORT_ID_UNAVAILABLE = -1;
 
+    // Sentinel returned by intIdOrUnavailable for a block that is not indexed
+    public static final int INT_ID_UNAVAILABLE = -1;
+
+    // --- Per-BlockState classification, indexed by Block.BLOCK_STATE_REGISTRY id ---
+
+    public static final int F_AIR          = 1;
+    public static final int F_UNBREAKABLE  = 1 << 1; // negative destroy speed (bedrock, barriers, portals)
+    public static final int F_NO_BREAK     = 1 << 2; // ModTags.Blocks.NO_BREAK
+    public static final int F_BLOCK_ENTITY = 1 << 3;
+    public static final int F_FLUID        = 1 << 4; // includes waterlogged blocks
+    public static final int F_NO_SILK_TOUCH = 1 << 5; // ModTags.Blocks.NO_SILK_TOUCH: yields its loot drops, not itself
+    public static final int F_POI          = 1 << 6; // claims a point of interest (beds, bells, workstations)
+
+    /** Any of these: the quarry leaves the block where it is. */
+    public static final int F_NOT_EXCAVATABLE = F_AIR | F_UNBREAKABLE | F_NO_BREAK;
+
+    /** {@link #itemIdAt} value for a state that yields no buffered item (fluids, unindexed blocks). */
+    public static final int NO_ITEM = -1;
+    /** {@link #itemIdAt} flag: the low bits are an int id for the overflow buffer, not a short id. */
+    public static final int OVERFLOW_ID = 1 << 30;
+
+    private static final int TAG_FLAGS = F_NO_BREAK | F_NO_SILK_TOUCH;
+
+    private static byte[] stateFlags = new byte[0];
+    private static int[] stateItemIds = new int[0];
+
 
     private static void buildIndex() {
         if (indexBuilt) {
@@ -54,6 +91,7 @@ public final class BlockIndexer {
         for (Block b : candidates) {
             ID_TO_BLOCK_INT.put(id, b);
             BLOCK_TO_ID_INT.put(BuiltInRegistries.BLOCK.getKey(b), id);
+            BLOCK_TO_ID.put(b, id);
 
             ++id;
         }
@@ -70,6 +108,73 @@ public final class BlockIndexer {
     public static void initalize(){
         buildIndex();
         cachedIdMap = buildIdToResourceMap();
+        buildStateTable();
+    }
+
+    /**
+     * Builds the per-state flags and buffer ids in one pass over every block state, so
+     * the mining loop classifies a state with an array load and a bit test. Tag flags are
+     * filled in later by {@link #refreshTagFlags()}, once tags are bound.
+     */
+    private static void buildStateTable() {
+        int count = Block.BLOCK_STATE_REGISTRY.size();
+        byte[] flags = new byte[count];
+        int[] itemIds = new int[count];
+        for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+            int index = Block.getId(state);
+            int f = 0;
+            if (state.isAir()) f |= F_AIR;
+            if (state.getDestroySpeed(EmptyBlockGetter.INSTANCE, BlockPos.ZERO) < 0) f |= F_UNBREAKABLE;
+            if (state.hasBlockEntity()) f |= F_BLOCK_ENTITY;
+            if (!state.getFluidState().isEmpty()) f |= F_FLUID;
+            if (PoiTypes.forState(state).isPresent()) f |= F_POI;
+            flags[index] = (byte) f;
+            itemIds[index] = (f & F_FLUID) != 0 ? NO_ITEM : bufferIdOf(state.getBlock());
+        }
+        stateFlags = flags;
+        stateItemIds = itemIds;
+        refreshTagFlags();
+    }
+
+    private static int bufferIdOf(Block block) {
+        int id = BLOCK_TO_ID.getInt(block);
+        if (id == INT_ID_UNAVAILABLE) return NO_ITEM;
+        return isShortId(id) ? id : OVERFLOW_ID | id;
+    }
+
+    /** Re-derives the tag flags of every state. Called on build and whenever tags are (re)loaded. */
+    public static void refreshTagFlags() {
+        byte[] flags = stateFlags;
+        for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+            int index = Block.getId(state);
+            if (index >= flags.length) continue; // not built yet
+            int f = flags[index] & ~TAG_FLAGS;
+            if (state.is(ModTags.Blocks.NO_BREAK)) f |= F_NO_BREAK;
+            if (state.is(ModTags.Blocks.NO_SILK_TOUCH)) f |= F_NO_SILK_TOUCH;
+            flags[index] = (byte) f;
+        }
+    }
+
+    /** Registry index of {@code state}, for {@link #flagsAt} and {@link #itemIdAt}. */
+    public static int stateIndex(BlockState state) {
+        return Block.getId(state);
+    }
+
+    public static int flagsAt(int stateIndex) {
+        return stateFlags[stateIndex];
+    }
+
+    /** Short id, {@code OVERFLOW_ID | intId}, or {@link #NO_ITEM}. */
+    public static int itemIdAt(int stateIndex) {
+        return stateItemIds[stateIndex];
+    }
+
+    public static int flags(BlockState state) {
+        return stateFlags[Block.getId(state)];
+    }
+
+    public static int itemId(BlockState state) {
+        return stateItemIds[Block.getId(state)];
     }
 
     private static boolean hasStandardBlockItem(Block b) {
@@ -82,15 +187,20 @@ public final class BlockIndexer {
     // Returns the full int ID for a block as an OptionalInt
     // Returns OptionalInt.empty() if the block is not indexed.
     public static OptionalInt tryGetIntId(Block block) {
+        int id = intIdOrUnavailable(block);
+        return id == INT_ID_UNAVAILABLE ? OptionalInt.empty() : OptionalInt.of(id);
+    }
+
+    /**
+     * Allocation-free variant of {@link #tryGetIntId}: the int ID for a block, or
+     * {@link #INT_ID_UNAVAILABLE} if it is not indexed. One identity-map lookup.
+     */
+    public static int intIdOrUnavailable(Block block) {
         if (!indexBuilt) {
             System.err.println("BlockIndexer: Attempted to get ID before index was built!");
-            return OptionalInt.empty();
+            return INT_ID_UNAVAILABLE;
         }
-        ResourceLocation key = BuiltInRegistries.BLOCK.getKey(block);
-        // Use getInt and handle FastUtil's default/missing behavior if needed
-        return BLOCK_TO_ID_INT.containsKey(key)
-                ? OptionalInt.of(BLOCK_TO_ID_INT.getInt(key))
-                : OptionalInt.empty();
+        return BLOCK_TO_ID.getInt(block);
     }
 
     // Returns the full int ID for a block.
@@ -100,11 +210,11 @@ public final class BlockIndexer {
             System.err.println("BlockIndexer: Attempted to get ID before index was built!");
             throw new IllegalStateException("BlockIndexer: Index not built yet.");
         }
-        ResourceLocation key = BuiltInRegistries.BLOCK.getKey(block);
-        if (!BLOCK_TO_ID_INT.containsKey(key)) {
-            throw new IllegalArgumentException("Block not indexed: " + key);
+        int id = BLOCK_TO_ID.getInt(block);
+        if (id == INT_ID_UNAVAILABLE) {
+            throw new IllegalArgumentException("Block not indexed: " + BuiltInRegistries.BLOCK.getKey(block));
         }
-        return BLOCK_TO_ID_INT.getInt(key);
+        return id;
     }
 
     // Returns the Block for a given int ID as an Optional.
@@ -136,15 +246,11 @@ public final class BlockIndexer {
      * Returns BlockIndexer.SHORT_ID_UNAVAILABLE (-1) otherwise (either not indexed or ID > 32767).
      */
     public static short tryGetShortId(Block block) {
-        // We need the int ID first to check the range.
-        OptionalInt intIdOpt = tryGetIntId(block); // Use the safe method
-
-        if (intIdOpt.isPresent()) {
-            int intId = intIdOpt.getAsInt();
-            // Check if the int ID is within the valid range for a short (0 to 32767)
-            if (intId >= 0 && intId <= MAX_SHORT_ID) {
-                return (short) intId;
-            }
+        int intId = intIdOrUnavailable(block); // no OptionalInt on the hot path
+
+        // Check if the int ID is within the valid range for a short (0 to 32767)
+        if (intId >= 0 && intId <= MAX_SHORT_ID) {
+            return (short) intId;
         }
 
         // Block not indexed, or ID is outside the short range
@@ -205,13 +311,12 @@ public final class BlockIndexer {
             System.err.println("BlockIndexer: requiresOverflow called before index built. Assuming overflow required.");
             return true;
         }
-        OptionalInt intIdOpt = tryGetIntId(block);
-        if (!intIdOpt.isPresent()) {
+        int id = intIdOrUnavailable(block);
+        if (id == INT_ID_UNAVAILABLE) {
             // Block isn't indexed at all (e.g., maybe it doesn't have a standard item)
             System.err.println("BlockIndexer: Block '" + BuiltInRegistries.BLOCK.getKey(block) + "' is not indexed. Treating as requiring overflow.");
             return true;
         }
-        int id = intIdOpt.getAsInt();
         return !isShortId(id); // Requires overflow if the ID is > 32767
     }
 }
\ No newline at end of file
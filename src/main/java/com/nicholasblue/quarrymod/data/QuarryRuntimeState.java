@@ -8,27 +8,42 @@ import net.minecraft.nbt.Tag;
 /**
  * Volatile, mutable execution state for a single running quarry.
  *
- * <p>This object is not registered or persisted during normal operation.
- * It is updated in-place by {@code CentralQuarryManager} during each server tick,
- * and only serialized when an explicit snapshot or save is triggered.</p>
+ * <p>This object is the interchange and persistence form of a quarry's runtime
+ * state. While a quarry is registered, its live state is held column-wise in
+ * {@code QuarryRuntimeStore}; instances handed out by {@code CentralQuarryManager}
+ * are detached copies that share only the item buffers.</p>
  *
  * <p>Each instance is tied to a unique quarry identity via its position key
  * in the runtime state map (typically quarryPos.asLong()).</p>
  */
 public final class QuarryRuntimeState {
 
+    private static final long[] NO_POSITIONS = new long[0];
+
     private int currentY;
     private int progressCounter;
     private boolean running;
+    private int miningProgress;     // fixed-point accumulator, see ExcavationEngine.PROGRESS_PER_BLOCK
+    private int upgrade1Units;
+    private int upgrade2Units;
+    private int lastServicedTick = -1; // volatile scheduling state, never persisted
+    private long[] minedEmitters = NO_POSITIONS;   // light emitters awaiting a recheck, see LightReconciler
+    private long[] emitterSections = NO_POSITIONS; // sections awaiting a whole-section recheck
     private final ItemBuffer ShortIditems;
     private final OverflowItemBuffer intIdItems;
 
     public QuarryRuntimeState(int currentY, int progressCounter, boolean running) {
+        this(currentY, progressCounter, running, new ItemBuffer(), new OverflowItemBuffer());
+    }
+
+    /** Wraps existing buffers, e.g. when exporting a slot from the runtime store. */
+    public QuarryRuntimeState(int currentY, int progressCounter, boolean running,
+                              ItemBuffer itemBuffer, OverflowItemBuffer overflowBuffer) {
         this.currentY = currentY;
         this.progressCounter = progressCounter;
         this.running = running;
-        this.intIdItems = new OverflowItemBuffer();
-        this.ShortIditems = new ItemBuffer();
+        this.intIdItems = overflowBuffer;
+        this.ShortIditems = itemBuffer;
     }
 
     /* ───────── Accessors ───────── */
@@ -57,6 +72,56 @@ public final class QuarryRuntimeState {
         this.running = running;
     }
 
+    public int getMiningProgress() {
+        return miningProgress;
+    }
+
+    public void setMiningProgress(int miningProgress) {
+        this.miningProgress = miningProgress;
+    }
+
+    public int getUpgrade1Units() {
+        return upgrade1Units;
+    }
+
+    public void setUpgrade1Units(int upgrade1Units) {
+        this.upgrade1Units = upgrade1Units;
+    }
+
+    public int getUpgrade2Units() {
+        return upgrade2Units;
+    }
+
+    public void setUpgrade2Units(int upgrade2Units) {
+        this.upgrade2Units = upgrade2Units;
+    }
+
+    public int getLastServicedTick() {
+        return lastServicedTick;
+    }
+
+    public void setLastServicedTick(int lastServicedTick) {
+        this.lastServicedTick = lastServicedTick;
+    }
+
+    /** Packed positions of mined light emitters not yet rechecked; never null. */
+    public long[] getMinedEmitters() {
+        return minedEmitters;
+    }
+
+    public void setMinedEmitters(long[] minedEmitters) {
+        this.minedEmitters = minedEmitters;
+    }
+
+    /** Section keys whose light is rechecked whole once the quarry finishes; never null. */
+    public long[] getEmitterSections() {
+        return emitterSections;
+    }
+
+    public void setEmitterSections(long[] emitterSections) {
+        this.emitterSections = emitterSections;
+    }
+
     public ItemBuffer getItemBuffer(){
         return ShortIditems;
     }
@@ -86,6 +151,11 @@ public final class QuarryRuntimeState {
         tag.putInt("currentY", currentY);
         tag.putInt("progress", progressCounter);
         tag.putBoolean("running", running);
+        tag.putInt("miningProgress", miningProgress);
+        tag.putInt("upgrade1", upgrade1Units);
+        tag.putInt("upgrade2", upgrade2Units);
+        if (minedEmitters.length > 0) tag.putLongArray("emitters", minedEmitters);
+        if (emitterSections.length > 0) tag.putLongArray("emitterSections", emitterSections);
 
 
         tag.put("ItemBuffer", ShortIditems.save());
@@ -101,6 +171,11 @@ public final class QuarryRuntimeState {
         boolean run = tag.getBoolean("running");
 
         QuarryRuntimeState state = new QuarryRuntimeState(y, prog, run);
+        state.miningProgress = tag.getInt("miningProgress");
+        state.upgrade1Units = tag.getInt("upgrade1");
+        state.upgrade2Units = tag.getInt("upgrade2");
+        state.minedEmitters = tag.getLongArray("emitters");         // empty when absent
+        state.emitterSections = tag.getLongArray("emitterSections");
 
 
         if (tag.contains("ItemBuffer", Tag.TAG_LIST)) {
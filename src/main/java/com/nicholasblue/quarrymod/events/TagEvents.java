@@ -0,0 +1,23 @@
+package com.nicholasblue.quarrymod.events;
+
+import com.nicholasblue.quarrymod.QuarryMod;
+import com.nicholasblue.quarrymod.data.BlockIndexer;
+import net.minecraftforge.event.TagsUpdatedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+@Mod.EventBusSubscriber(modid = QuarryMod.MODID)
+public final class TagEvents {
+
+    /**
+     * Tags are unbound when the block index is built, and change on /reload. Only the
+     * server's own data load refreshes the flags: the client copy of the event
+     * (CLIENT_PACKET_RECEIVED) runs on the client thread, which in singleplayer would
+     * race the server thread on the shared state table.
+     */
+    @SubscribeEvent
+    public static void onTagsUpdated(TagsUpdatedEvent event) {
+        if (event.getUpdateCause() != TagsUpdatedEvent.UpdateCause.SERVER_DATA_LOAD) return;
+        BlockIndexer.refreshTagFlags();
+    }
+}
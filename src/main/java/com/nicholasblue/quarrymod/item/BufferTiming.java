@@ -0,0 +1,99 @@
+package com.nicholasblue.quarrymod.item;
+
+import com.nicholasblue.quarrymod.Config;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.server.ServerLifecycleHooks;
+
+/**
+ * Buffer timing derived from {@link Config.ItemHandlingConfig}, snapshotted once per
+ * server tick so buffer inserts and scans never read the config spec.
+ *
+ * <p>With dupe protection on, mined items are held for the save interval (30s, or the
+ * configured override) plus 1s plus the checking granularity, and paid out on scans
+ * every granularity seconds. With it off they are held for
+ * {@link ItemBuffer#DEFAULT_EXPIRY_TICKS}, still scanned at the same granularity.</p>
+ *
+ * <p>Harsh mode (dupe protection plus {@code harshDupeProtection}) holds a partly
+ * filled entry until its item type has gone a full delay without inserts, and a full
+ * (255) entry for a full delay after its last item.</p>
+ *
+ * <p>Expiry ticks are on the server tick counter, which restarts at 0 with every
+ * launch, so buffers save the ticks remaining ({@link #remainingAt}) and rebase them on
+ * load ({@link #expiryFromSaved}) rather than storing absolute ticks.</p>
+ *
+ * <p>Server thread only. Until the first refresh, the config defaults are used.</p>
+ */
+public final class BufferTiming {
+
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int VANILLA_SAVE_INTERVAL_SECONDS = 30;
+    private static final int SAFETY_SECONDS = 1;
+
+    private static int granularityTicks = 10 * TICKS_PER_SECOND;
+    private static int expiryDelayTicks = ItemBuffer.DEFAULT_EXPIRY_TICKS;
+    private static boolean harsh = false;
+
+    private BufferTiming() {}
+
+    /** Re-reads the item-handling config. Called once per server tick. */
+    public static void refresh() {
+        Config.ItemHandlingConfig cfg = Config.COMMON.ITEM_HANDLING;
+        int granularity = cfg.DUPE_CHECKING_GRANULARITY.get();
+        granularityTicks = granularity * TICKS_PER_SECOND;
+
+        if (cfg.DUPLICATE_PROTECTION.get()) {
+            int saveInterval = cfg.OVERRIDE_SAVE_INTERVAL.get()
+                    ? cfg.CUSTOM_SAVE_INTERVAL_SECONDS.get()
+                    : VANILLA_SAVE_INTERVAL_SECONDS;
+            expiryDelayTicks = (saveInterval + SAFETY_SECONDS + granularity) * TICKS_PER_SECOND;
+            harsh = cfg.HARSH_DUPE_PROTECTION.get();
+        } else {
+            expiryDelayTicks = ItemBuffer.DEFAULT_EXPIRY_TICKS;
+            harsh = false;
+        }
+    }
+
+    /** Ticks between buffer scans. */
+    public static int granularityTicks() {
+        return granularityTicks;
+    }
+
+    /** Ticks an inserted entry is held before it may be paid out. */
+    public static int expiryDelayTicks() {
+        return expiryDelayTicks;
+    }
+
+    /** Whether inserts reset the aging of their item type (harsh dupe protection). */
+    public static boolean isHarsh() {
+        return harsh;
+    }
+
+    /** The running server's tick counter, clamped to 31 bits as the quarry manager does; 0 without a server. */
+    public static int currentTick() {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        return server == null ? 0 : (int) (server.getTickCount() & 0x7FFFFFFF);
+    }
+
+    /** Ticks left until {@code expiryTick}, never negative; what buffers save. */
+    static int remainingAt(int expiryTick) {
+        return Math.max(expiryTick - currentTick(), 0);
+    }
+
+    /**
+     * Expiry tick for an entry read from NBT: {@code remaining} ticks from now, or for
+     * saves that stored an absolute {@code expiry} from an earlier launch, at most one
+     * delay from now.
+     */
+    static int expiryFromSaved(CompoundTag tag) {
+        int now = currentTick();
+        if (tag.contains("remaining", Tag.TAG_INT)) return now + Math.max(tag.getInt("remaining"), 0);
+        return Math.min(tag.getInt("expiry"), now + expiryDelayTicks);
+    }
+
+    /** Whether buffers are due for a scan on {@code currentTick}. */
+    public static boolean isScanTick(int currentTick) {
+        return (currentTick + 1) % granularityTicks == 0;
+    }
+}
@@ -0,0 +1,99 @@
+package com.nicholasblue.quarrymod.item;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Expiry timing wheel for one item buffer.
+ *
+ * <p>Entries are identified by an int reference chosen by the owning buffer and filed
+ * under {@code expiryTick / granularity}. A scan drains only the buckets whose whole
+ * tick range has passed, so its cost is proportional to the entries that expired, not
+ * to the entries buffered. The ring covers the configured expiry horizon; an entry
+ * filed further out, or whose expiry moved later after filing, is handed back by
+ * {@link #drain} like any other and simply rescheduled by its buffer.</p>
+ *
+ * <p>Each live entry must have exactly one reference filed at a time. Not thread-safe.</p>
+ */
+final class ExpiryWheel {
+
+    private int granularity;
+    private IntArrayList[] buckets;
+    private int mask;
+    /** Absolute bucket number drained last. */
+    private long drainedThrough = Long.MIN_VALUE;
+
+    ExpiryWheel() {
+        configure(BufferTiming.granularityTicks(), BufferTiming.expiryDelayTicks());
+    }
+
+    private void configure(int granularity, int horizonTicks) {
+        int needed = horizonTicks / granularity + 2;
+        int size = Integer.highestOneBit(Math.max(needed - 1, 1)) << 1;
+        this.granularity = granularity;
+        this.buckets = new IntArrayList[size];
+        this.mask = size - 1;
+    }
+
+    /** Whether the configured granularity or horizon changed since the ring was sized. */
+    boolean isStale() {
+        int g = BufferTiming.granularityTicks();
+        return g != granularity || BufferTiming.expiryDelayTicks() / g + 2 > buckets.length;
+    }
+
+    /**
+     * Resizes the ring to the current config and re-files every entry.
+     * {@code expiryOf} maps a reference to its entry's current expiry tick.
+     */
+    void refit(IntUnaryOperator expiryOf) {
+        IntArrayList all = new IntArrayList();
+        for (IntArrayList bucket : buckets) {
+            if (bucket != null) all.addAll(bucket);
+        }
+        configure(BufferTiming.granularityTicks(), BufferTiming.expiryDelayTicks());
+        drainedThrough = Long.MIN_VALUE;
+        for (int i = 0; i < all.size(); i++) {
+            int ref = all.getInt(i);
+            schedule(ref, expiryOf.applyAsInt(ref));
+        }
+    }
+
+    void schedule(int ref, int expiryTick) {
+        long bucket = Math.floorDiv(expiryTick, granularity);
+        if (drainedThrough != Long.MIN_VALUE) {
+            // Never file into the past (drained) or beyond the ring; drain() hands early ones back.
+            bucket = Math.max(bucket, drainedThrough + 1);
+            bucket = Math.min(bucket, drainedThrough + buckets.length);
+        }
+        int index = (int) (bucket & mask);
+        IntArrayList list = buckets[index];
+        if (list == null) list = buckets[index] = new IntArrayList();
+        list.add(ref);
+    }
+
+    /**
+     * Moves every reference in a bucket whose tick range ended at or before
+     * {@code currentTick} into {@code out}. The caller expires or reschedules each one.
+     */
+    void drain(int currentTick, IntArrayList out) {
+        long due = Math.floorDiv((long) currentTick + 1, granularity) - 1; // last fully elapsed bucket
+        if (drainedThrough == Long.MIN_VALUE) drainedThrough = due - buckets.length;
+        if (due <= drainedThrough) return;
+
+        long from = Math.max(drainedThrough + 1, due - buckets.length + 1);
+        for (long b = from; b <= due; b++) {
+            IntArrayList list = buckets[(int) (b & mask)];
+            if (list == null || list.isEmpty()) continue;
+            out.addAll(list);
+            list.clear();
+        }
+        drainedThrough = due;
+    }
+
+    void clear() {
+        for (IntArrayList bucket : buckets) {
+            if (bucket != null) bucket.clear();
+        }
+    }
+}
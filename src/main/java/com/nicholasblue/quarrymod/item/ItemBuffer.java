@@ -1,136 +1,302 @@
 package com.nicholasblue.quarrymod.item;
 
+import com.nicholasblue.quarrymod.QuarryMod;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.shorts.Short2IntOpenHashMap;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Per-quarry buffer of mined items with short ids, paid out when entries expire.
+ *
+ * <p>Entries never move once written: an expired entry is zeroed in place and its slab
+ * is returned to the pool once none of its entries are live. That keeps the reference
+ * {@code slabSlot << 8 | index} stable, which is what the {@link ExpiryWheel} files, so
+ * a scan visits only the entries that are due.</p>
+ *
+ * <p>An entry is a run: one record per item id and expiry bucket (expiry tick divided
+ * by the scan granularity) with an {@code int} count, so a layer of stone is a handful
+ * of entries rather than one per 255 items. Items merged into a run all come due on
+ * the same scan they would have alone; the run keeps the latest of their expiries.</p>
+ *
+ * <p>In harsh mode ({@link BufferTiming#isHarsh}) every insert records the tick for its
+ * item type, and a run below {@link #FULL_ENTRY_COUNT} items is not paid out until that
+ * type has been idle for a full delay. A run that has crossed that count pays out one
+ * delay after its last item, as a full byte-counted entry used to. Neither trigger
+ * touches the wheel on insert: when the old bucket of a held entry comes due, the
+ * entry is filed again at its new tick.</p>
+ */
 public final class ItemBuffer {
 
     private static final int SLAB_CAPACITY = 256;
+    private static final int INDEX_BITS = 8; // log2(SLAB_CAPACITY)
     static final int DEFAULT_EXPIRY_TICKS = 20;
-    static final boolean RESET_TIMER_ON_ADD = false;
+    /** Harsh mode releases a run on its own expiry once it holds this many items. */
+    static final int FULL_ENTRY_COUNT = 255;
+    private static final int NO_INSERT = -1;
 
     // ────────── Internal Slab Definition ──────────
     static final class Slab {
         final short[] itemIds = new short[SLAB_CAPACITY];
-        final byte[] counts = new byte[SLAB_CAPACITY];
+        final int[] counts = new int[SLAB_CAPACITY];
         final int[] expiryTicks = new int[SLAB_CAPACITY];
         int size = 0;
-
-        private final Map<Short, Integer> indexMap = new HashMap<>();
+        /** Entries not yet expired; expired ones keep their index with a count of 0. */
+        int live = 0;
+        /** Position in the owning buffer's slab table. */
+        int slot;
+
+        // Open-addressed id -> entry index table for the open (latest) run of each id.
+        // Linear probing over twice the slab capacity keeps the load factor at or below 0.5.
+        private static final int PROBE_CAPACITY = SLAB_CAPACITY * 2;
+        private static final int PROBE_MASK = PROBE_CAPACITY - 1;
+        private static final int PROBE_SHIFT = 32 - Integer.numberOfTrailingZeros(PROBE_CAPACITY);
+        private final short[] probeIds = new short[PROBE_CAPACITY];
+        private final short[] probeIndex = new short[PROBE_CAPACITY]; // entry index + 1; 0 = empty cell
 
         boolean isFull() {
             return size >= SLAB_CAPACITY;
         }
 
-        void addEntry(short itemId, int expiryTick) {
+        private static int home(short itemId) {
+            return ((itemId & 0xFFFF) * 0x9E3779B1) >>> PROBE_SHIFT;
+        }
+
+        /** Index of the open entry for {@code itemId}, or -1. */
+        int indexOf(short itemId) {
+            for (int cell = home(itemId); ; cell = (cell + 1) & PROBE_MASK) {
+                int stored = probeIndex[cell];
+                if (stored == 0) return -1;
+                if (probeIds[cell] == itemId) return stored - 1;
+            }
+        }
+
+        void putIndex(short itemId, int index) {
+            int cell = home(itemId);
+            while (probeIndex[cell] != 0 && probeIds[cell] != itemId) {
+                cell = (cell + 1) & PROBE_MASK;
+            }
+            probeIds[cell] = itemId;
+            probeIndex[cell] = (short) (index + 1);
+        }
+
+        /** Drops {@code itemId} from the table, shifting later cells of its probe run back into the gap. */
+        void removeIndex(short itemId) {
+            int hole = home(itemId);
+            while (true) {
+                if (probeIndex[hole] == 0) return; // not present
+                if (probeIds[hole] == itemId) break;
+                hole = (hole + 1) & PROBE_MASK;
+            }
+            for (int cell = (hole + 1) & PROBE_MASK; probeIndex[cell] != 0; cell = (cell + 1) & PROBE_MASK) {
+                // The entry may move into the hole only if the hole lies on its probe path.
+                if (((cell - home(probeIds[cell])) & PROBE_MASK) >= ((cell - hole) & PROBE_MASK)) {
+                    probeIds[hole] = probeIds[cell];
+                    probeIndex[hole] = probeIndex[cell];
+                    hole = cell;
+                }
+            }
+            probeIndex[hole] = 0;
+        }
+
+        /** Appends an entry and makes it the open one for its id. Returns its index. */
+        int addEntry(short itemId, int count, int expiryTick) {
             if (size >= SLAB_CAPACITY) {
                 throw new IllegalStateException("Attempted to add entry to full slab");
             }
             itemIds[size] = itemId;
-            counts[size] = 1; // New entries start with count 1
+            counts[size] = count;
             expiryTicks[size] = expiryTick;
-            indexMap.put(itemId, size);
-            size++;
+            putIndex(itemId, size);
+            live++;
+            return size++;
         }
 
-        void removeAt(int index) {
-            if (index < 0 || index >= size) {
-                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
-            }
-            short itemIdToRemove = itemIds[index];
-            indexMap.remove(itemIdToRemove);
-
-            int last = --size;
-            if (index != last) {
-                itemIds[index] = itemIds[last];
-                counts[index] = counts[last];
-                expiryTicks[index] = expiryTicks[last];
-                indexMap.put(itemIds[index], index); // Update map for the moved item
-            }
+        /** Marks the entry at {@code index} expired. Its index is not reused until the slab is reset. */
+        void expireAt(int index) {
+            short itemId = itemIds[index];
+            if (indexOf(itemId) == index) removeIndex(itemId);
+            counts[index] = 0;
+            live--;
         }
 
         boolean isEmpty() {
-            return size == 0;
+            return live == 0;
         }
 
         void reset() {
             size = 0;
-            indexMap.clear();
+            live = 0;
+            Arrays.fill(probeIndex, (short) 0);
         }
     }
 
     // ────────── Main Buffer State ──────────
     private final List<Slab> slabs = new ArrayList<>();
+    private Slab[] slabTable = new Slab[4]; // slab slot -> slab, for wheel references
+    private int slabTableSize = 0;
+    private final IntArrayList freeSlabSlots = new IntArrayList();
     private Slab activeSlab;
 
+    private final ExpiryWheel wheel = new ExpiryWheel();
+    private final IntArrayList due = new IntArrayList(); // reused by tick()
+    /** Harsh mode: last insert tick per item type, kept until the type has been idle a full delay. */
+    private final Short2IntOpenHashMap lastInsertTick = new Short2IntOpenHashMap();
+
     public ItemBuffer() {
-        this.slabs.clear(); // Ensure fresh start
-        this.activeSlab = SlabPool.acquire();
-        slabs.add(activeSlab);
+        this.lastInsertTick.defaultReturnValue(NO_INSERT);
+        this.activeSlab = newSlab();
+    }
+
+    private Slab newSlab() {
+        Slab slab = SlabPool.acquire();
+        int slot = freeSlabSlots.isEmpty() ? slabTableSize++ : freeSlabSlots.popInt();
+        if (slot == slabTable.length) slabTable = Arrays.copyOf(slabTable, slot * 2);
+        slabTable[slot] = slab;
+        slab.slot = slot;
+        slabs.add(slab);
+        return slab;
+    }
+
+    private void releaseSlab(Slab slab) {
+        slabs.remove(slab); // slabs expire roughly in insertion order, so this is near the front
+        slabTable[slab.slot] = null;
+        freeSlabSlots.add(slab.slot);
+        SlabPool.release(slab);
+    }
+
+    /** Starts a new active slab, releasing the full one if everything in it already expired. */
+    private void rollActiveSlab() {
+        Slab full = activeSlab;
+        activeSlab = newSlab();
+        if (full.isEmpty()) releaseSlab(full);
+    }
+
+    /** Appends a live entry to the active slab and files it with the wheel. */
+    private void append(short itemId, int count, int expiryTick) {
+        if (activeSlab.isFull()) rollActiveSlab();
+        int index = activeSlab.addEntry(itemId, count, expiryTick);
+        wheel.schedule(activeSlab.slot << INDEX_BITS | index, expiryTick);
+    }
+
+    private int expiryOf(int ref) {
+        return slabTable[ref >>> INDEX_BITS].expiryTicks[ref & (SLAB_CAPACITY - 1)];
     }
 
     public void add(short itemId, int currentTick) {
-        Integer existingIndex = activeSlab.indexMap.get(itemId);
-        if (existingIndex != null) {
-            int index = existingIndex;
-            if ((activeSlab.counts[index] & 0xFF) < 255) {
-                activeSlab.counts[index]++;
-                if (RESET_TIMER_ON_ADD) { 
-                    activeSlab.expiryTicks[index] = currentTick + DEFAULT_EXPIRY_TICKS;
-                }
+        add(itemId, 1, currentTick);
+    }
+
+    /**
+     * Bulk insert: adds {@code count} items of one id to its open run if that run comes
+     * due in the same scan bucket, otherwise starts a new run. One index lookup per call.
+     */
+    public void add(short itemId, int count, int currentTick) {
+        if (count <= 0) return;
+        int expiry = currentTick + BufferTiming.expiryDelayTicks();
+        if (BufferTiming.isHarsh()) lastInsertTick.put(itemId, currentTick);
+
+        int index = activeSlab.indexOf(itemId);
+        if (index >= 0) {
+            int granularity = BufferTiming.granularityTicks();
+            if (Math.floorDiv(activeSlab.expiryTicks[index], granularity) == Math.floorDiv(expiry, granularity)
+                    && activeSlab.counts[index] <= Integer.MAX_VALUE - count) {
+                activeSlab.counts[index] += count;
+                activeSlab.expiryTicks[index] = expiry; // same bucket, so still filed correctly
                 return;
-            } else {
-                activeSlab.indexMap.remove(itemId);
             }
+            activeSlab.removeIndex(itemId);
         }
-
-        if (activeSlab.isFull()) {
-            activeSlab = SlabPool.acquire();
-            slabs.add(activeSlab);
-        }
-        activeSlab.addEntry(itemId, currentTick + DEFAULT_EXPIRY_TICKS);
+        append(itemId, count, expiry);
     }
 
-    public void tick(int currentTick) {
-        for (int s = 0; s < slabs.size(); s++) {
-            Slab slab = slabs.get(s);
-
-            if (slab.isEmpty()) {
-                if (slab != activeSlab) { // Avoid deallocating/pooling the active slab
-                    SlabPool.release(slabs.remove(s)); // Release to the pool
-                    s--; // Decrement slab index
-                }
+    /**
+     * Pays out every entry whose expiry has passed. Only the wheel buckets that came due
+     * are visited; entries whose expiry moved later, or that harsh mode still holds, are
+     * filed again instead. An entry the sink cannot take stays buffered and is offered
+     * again on the next scan. Slabs left without live entries go back to the pool.
+     */
+    public void tick(int currentTick, PayoutSink sink) {
+        if (wheel.isStale()) wheel.refit(this::expiryOf);
+        boolean harsh = BufferTiming.isHarsh();
+        if (!harsh && !lastInsertTick.isEmpty()) lastInsertTick.clear();
+        IntArrayList due = this.due;
+        wheel.drain(currentTick, due);
+
+        for (int i = 0; i < due.size(); i++) {
+            int ref = due.getInt(i);
+            Slab slab = slabTable[ref >>> INDEX_BITS];
+            int index = ref & (SLAB_CAPACITY - 1);
+            int expiry = slab.expiryTicks[index];
+            if (harsh) expiry = heldUntil(slab.itemIds[index], slab.counts[index], expiry, currentTick);
+            if (expiry - currentTick > 0) {
+                wheel.schedule(ref, expiry);
+                continue;
+            }
+            if (!expel(slab.itemIds[index], slab.counts[index], sink)) {
+                wheel.schedule(ref, currentTick + BufferTiming.granularityTicks());
+                continue;
             }
+            slab.expireAt(index);
+            if (slab.isEmpty() && slab != activeSlab) releaseSlab(slab);
         }
+        due.clear();
     }
 
+    /**
+     * Harsh-mode expiry of an entry: a partly filled one is held until its item type has
+     * been idle a full delay. Forgets the type's insert tick once that has passed.
+     */
+    private int heldUntil(short itemId, int count, int expiry, int currentTick) {
+        int last = lastInsertTick.get(itemId);
+        if (last == NO_INSERT) return expiry;
+        int idleUntil = last + BufferTiming.expiryDelayTicks();
+        if (idleUntil - currentTick <= 0) {
+            lastInsertTick.remove(itemId);
+            return expiry;
+        }
+        return count < FULL_ENTRY_COUNT ? Math.max(expiry, idleUntil) : expiry;
+    }
 
-    public void flushAll() {
+    /** Returns every slab to the pool and starts over with one empty active slab. Expels nothing. */
+    private void resetSlabs() {
         for (Slab slab : slabs) {
-            if (slab == activeSlab) continue;
-            for (int i = 0; i < slab.size; i++) {
-                expel(slab.itemIds[i], slab.counts[i]);
-            }
             SlabPool.release(slab);
         }
         slabs.clear();
+        Arrays.fill(slabTable, 0, slabTableSize, null);
+        slabTableSize = 0;
+        freeSlabSlots.clear();
+        wheel.clear();
+        lastInsertTick.clear();
+        activeSlab = newSlab();
+    }
 
-        if (activeSlab != null) {
-            for (int i = 0; i < activeSlab.size; i++) {
-                expel(activeSlab.itemIds[i], activeSlab.counts[i]);
+    /** Pays out every live entry regardless of expiry. Entries the sink cannot take are kept. */
+    public void flushAll(PayoutSink sink) {
+        List<Slab> kept = new ArrayList<>(); // refused entries, re-added after the reset
+        Slab keep = null;
+        for (Slab slab : slabs) {
+            for (int i = 0; i < slab.size; i++) {
+                if (slab.counts[i] == 0 || expel(slab.itemIds[i], slab.counts[i], sink)) continue;
+                if (keep == null || keep.isFull()) kept.add(keep = SlabPool.acquire());
+                keep.addEntry(slab.itemIds[i], slab.counts[i], slab.expiryTicks[i]);
             }
-            activeSlab.reset();
-            slabs.add(activeSlab);
-        } else {
-            activeSlab = SlabPool.acquire();
-            slabs.add(activeSlab);
+        }
+        resetSlabs();
+        for (Slab slab : kept) {
+            for (int i = 0; i < slab.size; i++) {
+                append(slab.itemIds[i], slab.counts[i], slab.expiryTicks[i]);
+            }
+            SlabPool.release(slab);
         }
     }
 
@@ -138,10 +304,11 @@ public final class ItemBuffer {
         ListTag bufferNbt = new ListTag();
         for (Slab slab : slabs) {
             for (int i = 0; i < slab.size; i++) {
+                if (slab.counts[i] == 0) continue; // expired
                 CompoundTag itemEntryTag = new CompoundTag();
                 itemEntryTag.putShort("id", slab.itemIds[i]);
-                itemEntryTag.putByte("count", slab.counts[i]);
-                itemEntryTag.putInt("expiry", slab.expiryTicks[i]);
+                itemEntryTag.putInt("count", slab.counts[i]);
+                itemEntryTag.putInt("remaining", BufferTiming.remainingAt(slab.expiryTicks[i]));
                 bufferNbt.add(itemEntryTag);
             }
         }
@@ -149,13 +316,7 @@ public final class ItemBuffer {
     }
 
     public void load(ListTag bufferNbt) {
-        // Reset internal state without expelling (return slabs to pool)
-        for (Slab slab : slabs) {
-            SlabPool.release(slab);
-        }
-        slabs.clear();
-        activeSlab = SlabPool.acquire();
-        slabs.add(activeSlab);
+        resetSlabs(); // without expelling
 
         if (bufferNbt.isEmpty()) {
             return;
@@ -164,20 +325,13 @@ public final class ItemBuffer {
         for (int i = 0; i < bufferNbt.size(); i++) {
             CompoundTag itemEntryTag = bufferNbt.getCompound(i);
             short itemId = itemEntryTag.getShort("id");
-            byte countByte = itemEntryTag.getByte("count");
-            int expiryTick = itemEntryTag.getInt("expiry");
-
-            if (activeSlab.isFull()) {
-                activeSlab = SlabPool.acquire();
-                slabs.add(activeSlab);
-            }
+            int count = itemEntryTag.getTagType("count") == Tag.TAG_BYTE
+                    ? itemEntryTag.getByte("count") & 0xFF // written before counts were widened
+                    : itemEntryTag.getInt("count");
+            int expiryTick = BufferTiming.expiryFromSaved(itemEntryTag);
 
-            int slabIndex = activeSlab.size;
-            activeSlab.itemIds[slabIndex] = itemId;
-            activeSlab.counts[slabIndex] = countByte;
-            activeSlab.expiryTicks[slabIndex] = expiryTick;
-            activeSlab.indexMap.put(itemId, slabIndex); // Assumes itemId is unique per slab for map
-            activeSlab.size++;
+            if (count <= 0) continue;
+            append(itemId, count, expiryTick); // a later run of the same id becomes the open one
         }
     }
 
@@ -185,7 +339,8 @@ public final class ItemBuffer {
         Map<Short, Integer> summary = new HashMap<>();
         for (Slab slab : slabs) {
             for (int i = 0; i < slab.size; i++) {
-                summary.merge(slab.itemIds[i], (int) (slab.counts[i] & 0xFF), Integer::sum);
+                if (slab.counts[i] == 0) continue;
+                summary.merge(slab.itemIds[i], slab.counts[i], Integer::sum);
             }
         }
         return summary;
@@ -198,12 +353,13 @@ public final class ItemBuffer {
     public int getTotalBufferedEntries() {
         int total = 0;
         for (Slab slab : slabs) {
-            total += slab.size;
+            total += slab.live;
         }
         return total;
     }
 
-    private void expel(short itemId, byte count) {
-        System.out.printf("ItemBuffer: Expelling itemId=%d, count=%d%n", itemId, (count & 0xFF));
+    private static boolean expel(short itemId, int count, PayoutSink sink) {
+        QuarryMod.LOGGER.debug("ItemBuffer: Expelling itemId={}, count={}", itemId, count);
+        return sink.deliver(itemId, count);
     }
 }
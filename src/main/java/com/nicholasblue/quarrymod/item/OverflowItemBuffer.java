@@ -1,113 +1,278 @@
 // --- START OF OverflowItemBuffer.java ---
 package com.nicholasblue.quarrymod.item;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import com.nicholasblue.quarrymod.QuarryMod;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+
+import javax.annotation.Nullable;
 
 
 import java.util.*;
 
+/**
+ * Per-quarry buffer of mined items whose blocks only have an int id (see
+ * {@code BlockIndexer.requiresOverflow}), with the same payout rules as {@link ItemBuffer}.
+ *
+ * <p>Entries live in parallel primitive arrays and are chained per block id through
+ * {@link #next}, newest first, from a head index in {@link #heads}. Freed entries go on
+ * a free list threaded through the same {@code next} array, so once the arrays have
+ * grown to a quarry's working set, inserts and payouts allocate nothing. An entry's
+ * index is its {@link ExpiryWheel} reference.</p>
+ *
+ * <p>As in {@link ItemBuffer}, an entry is a run of one id within one expiry bucket; the
+ * count is a {@code short}, so a run larger than {@link #MAX_ENTRY_COUNT} continues in
+ * a new entry.</p>
+ *
+ * <p>Loot drops that are not plain stacks of an indexed block (other items, and any
+ * stack carrying NBT) are held here too, keyed by {@link #ITEM_KEY} plus the item's
+ * registry id ({@link #addStack}). A stack's NBT stays with its entry, and tagged
+ * entries are never merged. Item keys are saved by registry name and are left out of
+ * {@link #getItemSummary}, which clients read as block ids.</p>
+ */
 public final class OverflowItemBuffer {
 
-    static final class OverflowEntry {
-        final int blockIntId;
-        byte count;
-        int expiryTick;
+    private static final int MAX_ENTRY_COUNT = Short.MAX_VALUE;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NIL = -1;
+    private static final int NO_INSERT = -1;
+    /** Key flag: the low bits are an item registry id, not a block int id. */
+    public static final int ITEM_KEY = 1 << 29;
+    private static final String ITEM_KEY_PREFIX = "item:";
 
-        OverflowEntry(int blockIntId, int expiryTick) {
-            this.blockIntId = blockIntId;
-            this.count = 1;
-            this.expiryTick = expiryTick;
-        }
+    private final Int2IntOpenHashMap heads = new Int2IntOpenHashMap(); // block id -> newest entry
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private short[] counts = new short[INITIAL_CAPACITY]; // 0 = free
+    private int[] expiryTicks = new int[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY]; // older entry of the same id, or next free entry
+    private CompoundTag[] tags = new CompoundTag[INITIAL_CAPACITY]; // stack NBT of item entries, else null
+    private int used = 0;       // high-water mark of entry indices
+    private int freeHead = NIL;
+    private int live = 0;
 
-        boolean tryIncrementCount() {
-            if ((this.count & 0xFF) < 255) {
-                this.count++;
-                return true;
-            }
-            return false;
+    private final ExpiryWheel wheel = new ExpiryWheel();
+    private final IntArrayList due = new IntArrayList(); // reused by tick() and save()
+    /** Harsh mode: last insert tick per block id (see {@link ItemBuffer}). */
+    private final Int2IntOpenHashMap lastInsertTick = new Int2IntOpenHashMap();
+
+    public OverflowItemBuffer() {
+        heads.defaultReturnValue(NIL);
+        lastInsertTick.defaultReturnValue(NO_INSERT);
+    }
+
+    private int allocate() {
+        if (freeHead != NIL) {
+            int entry = freeHead;
+            freeHead = next[entry];
+            return entry;
+        }
+        if (used == ids.length) {
+            int capacity = used * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            expiryTicks = Arrays.copyOf(expiryTicks, capacity);
+            next = Arrays.copyOf(next, capacity);
+            tags = Arrays.copyOf(tags, capacity);
         }
+        return used++;
+    }
+
+    /** Starts a new entry as the head of {@code blockIntId}'s chain and files it with the wheel. */
+    private int push(int blockIntId, int count, int expiryTick, int head, @Nullable CompoundTag tag) {
+        int entry = allocate();
+        ids[entry] = blockIntId;
+        counts[entry] = (short) count;
+        tags[entry] = tag;
+        expiryTicks[entry] = expiryTick;
+        next[entry] = head;
+        heads.put(blockIntId, entry);
+        live++;
+        wheel.schedule(entry, expiryTick);
+        return entry;
     }
 
-    private final Int2ObjectOpenHashMap<List<OverflowEntry>> bufferMap = new Int2ObjectOpenHashMap<>();
-    private static final int DEFAULT_EXPIRY_TICKS = ItemBuffer.DEFAULT_EXPIRY_TICKS; 
-    private static final boolean RESET_TIMER_ON_ADD = ItemBuffer.RESET_TIMER_ON_ADD; 
+    /** Unlinks {@code entry} from its id's chain and frees it. */
+    private void release(int entry) {
+        int blockIntId = ids[entry];
+        int head = heads.get(blockIntId);
+        if (head == entry) {
+            if (next[entry] == NIL) heads.remove(blockIntId);
+            else heads.put(blockIntId, next[entry]);
+        } else {
+            int prev = head; // chains hold one entry per pending bucket, so this walk is short
+            while (next[prev] != entry) prev = next[prev];
+            next[prev] = next[entry];
+        }
+        counts[entry] = 0;
+        tags[entry] = null;
+        next[entry] = freeHead;
+        freeHead = entry;
+        live--;
+    }
 
-    public OverflowItemBuffer() {}
+    private int expiryOf(int ref) {
+        return expiryTicks[ref];
+    }
 
     public void add(int blockIntId, int currentTick) {
-        List<OverflowEntry> entries = bufferMap.get(blockIntId);
-        if (entries == null) {
-            entries = new ArrayList<>();
-            bufferMap.put(blockIntId, entries);
-        }
+        add(blockIntId, 1, currentTick);
+    }
 
-        for (int i = entries.size() - 1; i >= 0; i--) {
-            OverflowEntry entry = entries.get(i);
-            if (entry.tryIncrementCount()) {
-                if (RESET_TIMER_ON_ADD) {
-                    entry.expiryTick = currentTick + DEFAULT_EXPIRY_TICKS;
+    /**
+     * Bulk insert: adds {@code count} items of one id to its newest entry if that entry
+     * comes due in the same scan bucket, and starts new entries for whatever does not fit.
+     */
+    public void add(int blockIntId, int count, int currentTick) {
+        if (count <= 0) return;
+        int expiry = currentTick + BufferTiming.expiryDelayTicks();
+        if (BufferTiming.isHarsh()) lastInsertTick.put(blockIntId, currentTick);
+
+        int head = heads.get(blockIntId);
+        if (head != NIL && tags[head] == null) {
+            int granularity = BufferTiming.granularityTicks();
+            if (Math.floorDiv(expiryTicks[head], granularity) == Math.floorDiv(expiry, granularity)) {
+                int take = Math.min(MAX_ENTRY_COUNT - counts[head], count);
+                if (take > 0) {
+                    counts[head] += (short) take;
+                    expiryTicks[head] = expiry; // same bucket, so still filed correctly
+                    count -= take;
                 }
-                return; // Incremented existing
             }
         }
-        // Add new entry
-        OverflowEntry newEntry = new OverflowEntry(blockIntId, currentTick + DEFAULT_EXPIRY_TICKS);
-        entries.add(newEntry);
+        while (count > 0) {
+            int take = Math.min(MAX_ENTRY_COUNT, count);
+            head = push(blockIntId, take, expiry, head, null);
+            count -= take;
+        }
     }
 
-    public void tick(int currentTick) {
-        ObjectIterator<Int2ObjectMap.Entry<List<OverflowEntry>>> mapIterator = bufferMap.int2ObjectEntrySet().fastIterator();
-        while (mapIterator.hasNext()) {
-            Int2ObjectMap.Entry<List<OverflowEntry>> mapEntry = mapIterator.next();
-            List<OverflowEntry> entriesList = mapEntry.getValue(); 
+    /**
+     * Inserts a loot stack that is not a plain indexed block, under its item key. A
+     * stack with NBT gets an entry of its own holding a copy of the tag.
+     */
+    public void addStack(ItemStack stack, int currentTick) {
+        if (stack.isEmpty()) return;
+        int key = ITEM_KEY | BuiltInRegistries.ITEM.getId(stack.getItem());
+        CompoundTag tag = stack.getTag();
+        if (tag == null) {
+            add(key, stack.getCount(), currentTick);
+            return;
+        }
+        int expiry = currentTick + BufferTiming.expiryDelayTicks();
+        if (BufferTiming.isHarsh()) lastInsertTick.put(key, currentTick);
+        int count = stack.getCount();
+        while (count > 0) {
+            int take = Math.min(MAX_ENTRY_COUNT, count);
+            push(key, take, expiry, heads.get(key), tag.copy());
+            count -= take;
+        }
+    }
 
+    /**
+     * Pays out every entry whose expiry has passed, visiting only the wheel buckets that
+     * came due. Entries whose expiry moved later, or that harsh mode still holds, are
+     * filed again instead. An entry the sink cannot take stays buffered and is offered
+     * again on the next scan.
+     */
+    public void tick(int currentTick, PayoutSink sink) {
+        if (wheel.isStale()) wheel.refit(this::expiryOf);
+        boolean harsh = BufferTiming.isHarsh();
+        if (!harsh && !lastInsertTick.isEmpty()) lastInsertTick.clear();
+        IntArrayList due = this.due;
+        wheel.drain(currentTick, due);
 
-            if (entriesList.isEmpty()) {
-                mapIterator.remove();
+        for (int i = 0; i < due.size(); i++) {
+            int entry = due.getInt(i);
+            int expiry = harsh ? heldUntil(entry, currentTick) : expiryTicks[entry];
+            if (expiry - currentTick > 0) {
+                wheel.schedule(entry, expiry);
+                continue;
+            }
+            if (!expel(ids[entry], counts[entry], tags[entry], sink)) {
+                wheel.schedule(entry, currentTick + BufferTiming.granularityTicks());
+                continue;
             }
+            release(entry);
         }
+        due.clear();
     }
 
-    public void flushAll() {
-        // This method DOES expel all items.
-        ObjectIterator<Int2ObjectMap.Entry<List<OverflowEntry>>> mapIterator = bufferMap.int2ObjectEntrySet().fastIterator();
-        while (mapIterator.hasNext()) {
-            Int2ObjectMap.Entry<List<OverflowEntry>> mapEntry = mapIterator.next();
-            List<OverflowEntry> entries = mapEntry.getValue();
-            for (OverflowEntry entry : entries) {
-                expel(entry.blockIntId, entry.count);
-            }
+    /** Harsh-mode expiry of {@code entry}; same rules as {@code ItemBuffer.heldUntil}. */
+    private int heldUntil(int entry, int currentTick) {
+        int blockIntId = ids[entry];
+        int last = lastInsertTick.get(blockIntId);
+        if (last == NO_INSERT) return expiryTicks[entry];
+        int idleUntil = last + BufferTiming.expiryDelayTicks();
+        if (idleUntil - currentTick <= 0) {
+            lastInsertTick.remove(blockIntId);
+            return expiryTicks[entry];
+        }
+        return counts[entry] < ItemBuffer.FULL_ENTRY_COUNT ? Math.max(expiryTicks[entry], idleUntil) : expiryTicks[entry];
+    }
+
+    /** Pays out every live entry regardless of expiry. Entries the sink cannot take are kept. */
+    public void flushAll(PayoutSink sink) {
+        IntArrayList kept = new IntArrayList(); // id, count, expiry triples, re-added after the reset
+        ObjectArrayList<CompoundTag> keptTags = new ObjectArrayList<>();
+        for (int entry = 0; entry < used; entry++) {
+            if (counts[entry] == 0 || expel(ids[entry], counts[entry], tags[entry], sink)) continue;
+            kept.add(ids[entry]);
+            kept.add(counts[entry]);
+            kept.add(expiryTicks[entry]);
+            keptTags.add(tags[entry]);
+        }
+        clearInternal();
+        for (int i = 0; i < kept.size(); i += 3) {
+            int blockIntId = kept.getInt(i);
+            push(blockIntId, kept.getInt(i + 1), kept.getInt(i + 2), heads.get(blockIntId), keptTags.get(i / 3));
         }
-        bufferMap.clear();
     }
 
     private void clearInternal() {
-        bufferMap.clear();
+        heads.clear();
+        Arrays.fill(tags, 0, used, null);
+        used = 0;
+        freeHead = NIL;
+        live = 0;
+        wheel.clear();
+        lastInsertTick.clear();
     }
 
 
     public CompoundTag save() {
         CompoundTag overflowNbt = new CompoundTag();
-        for (Int2ObjectMap.Entry<List<OverflowEntry>> mapEntry : bufferMap.int2ObjectEntrySet()) {
-            int blockIntId = mapEntry.getIntKey();
-            List<OverflowEntry> entriesList = mapEntry.getValue();
-
-            if (entriesList.isEmpty()) continue;
+        IntArrayList chain = this.due; // idle outside tick()
+        ObjectIterator<Int2IntMap.Entry> it = heads.int2IntEntrySet().fastIterator();
+        while (it.hasNext()) {
+            Int2IntMap.Entry mapEntry = it.next();
+            chain.clear();
+            for (int entry = mapEntry.getIntValue(); entry != NIL; entry = next[entry]) {
+                chain.add(entry);
+            }
 
             ListTag entriesNbt = new ListTag();
-            for (OverflowEntry entry : entriesList) {
+            for (int i = chain.size() - 1; i >= 0; i--) { // oldest first, so load rebuilds the same chain
+                int entry = chain.getInt(i);
                 CompoundTag entryTag = new CompoundTag();
-                entryTag.putByte("count", entry.count);
-                entryTag.putInt("expiry", entry.expiryTick);
+                entryTag.putInt("count", counts[entry]);
+                entryTag.putInt("remaining", BufferTiming.remainingAt(expiryTicks[entry]));
+                if (tags[entry] != null) entryTag.put("tag", tags[entry]);
                 entriesNbt.add(entryTag);
             }
-            overflowNbt.put(String.valueOf(blockIntId), entriesNbt);
+            overflowNbt.put(keyName(mapEntry.getIntKey()), entriesNbt);
         }
+        chain.clear();
         return overflowNbt;
     }
 
@@ -116,26 +281,30 @@ public final class OverflowItemBuffer {
 
         for (String key : overflowNbt.getAllKeys()) {
             try {
-                int blockIntId = Integer.parseInt(key);
+                int blockIntId = parseKey(key);
+                if (blockIntId == NIL) {
+                    QuarryMod.LOGGER.warn("OverflowItemBuffer.load: Dropping entries of unknown item '{}'", key);
+                    continue;
+                }
                 if (!overflowNbt.contains(key, Tag.TAG_LIST)) {
                     System.err.printf("OverflowItemBuffer.load: Key %s is not a ListTag.%n", key);
                     continue;
                 }
                 ListTag entriesNbt = overflowNbt.getList(key, Tag.TAG_COMPOUND);
 
-                List<OverflowEntry> entriesList = new ArrayList<>();
                 for (int i = 0; i < entriesNbt.size(); i++) {
                     CompoundTag entryTag = entriesNbt.getCompound(i);
-                    byte count = entryTag.getByte("count");
-                    int expiryTick = entryTag.getInt("expiry");
+                    int count = entryTag.getTagType("count") == Tag.TAG_BYTE
+                            ? entryTag.getByte("count") & 0xFF // written before counts were widened
+                            : entryTag.getInt("count");
+                    int expiryTick = BufferTiming.expiryFromSaved(entryTag);
+                    CompoundTag tag = entryTag.contains("tag", Tag.TAG_COMPOUND) ? entryTag.getCompound("tag") : null;
 
-                    OverflowEntry loadedEntry = new OverflowEntry(blockIntId, expiryTick);
-                    loadedEntry.count = count;
-                    entriesList.add(loadedEntry);
-                }
-
-                if (!entriesList.isEmpty()) {
-                    bufferMap.put(blockIntId, entriesList);
+                    while (count > 0) {
+                        int take = Math.min(MAX_ENTRY_COUNT, count);
+                        push(blockIntId, take, expiryTick, heads.get(blockIntId), tag == null ? null : tag.copy());
+                        count -= take;
+                    }
                 }
             } catch (NumberFormatException e) {
                 System.err.printf("OverflowItemBuffer.load: Failed to parse blockIntId from key '%s'%n", key);
@@ -143,43 +312,52 @@ public final class OverflowItemBuffer {
         }
     }
 
+    /** Totals per block int id; item-keyed entries are not included. */
     public Map<Integer, Integer> getItemSummary() {
         Map<Integer, Integer> summary = new HashMap<>();
-        for (Map.Entry<Integer, List<OverflowEntry>> entry : bufferMap.entrySet()) {
+        for (Int2IntMap.Entry mapEntry : heads.int2IntEntrySet()) {
+            if ((mapEntry.getIntKey() & ITEM_KEY) != 0) continue;
             int totalCount = 0;
-            for (OverflowEntry oe : entry.getValue()) {
-                totalCount += (oe.count & 0xFF);
+            for (int entry = mapEntry.getIntValue(); entry != NIL; entry = next[entry]) {
+                totalCount += counts[entry];
             }
-            summary.put(entry.getKey(), totalCount);
+            summary.put(mapEntry.getIntKey(), totalCount);
         }
         return summary;
     }
 
     public boolean isEmpty() {
-        return bufferMap.isEmpty();
+        return live == 0;
     }
 
     public int getTotalBufferedEntries() {
-        int totalEntries = 0;
-        for (List<OverflowEntry> entries : bufferMap.values()) {
-            totalEntries += entries.size();
-        }
-        return totalEntries;
+        return live;
     }
 
     public int getTotalItemCount() {
         int totalItems = 0;
-        for (List<OverflowEntry> entries : bufferMap.values()) {
-            for (OverflowEntry entry : entries) {
-                totalItems += (entry.count & 0xFF);
-            }
+        for (int entry = 0; entry < used; entry++) {
+            totalItems += counts[entry];
         }
         return totalItems;
     }
 
-    private void expel(int blockIntId, byte count) {
+    private static boolean expel(int blockIntId, int count, @Nullable CompoundTag tag, PayoutSink sink) {
+        QuarryMod.LOGGER.debug("OverflowItemBuffer: Expelling blockIntId={}, count={}", blockIntId, count);
+        return sink.deliver(blockIntId, count, tag);
+    }
+
+    /** NBT key of an entry chain: the block int id, or {@link #ITEM_KEY_PREFIX} plus the item's registry name. */
+    private static String keyName(int key) {
+        if ((key & ITEM_KEY) == 0) return String.valueOf(key);
+        return ITEM_KEY_PREFIX + BuiltInRegistries.ITEM.getKey(BuiltInRegistries.ITEM.byId(key & ~ITEM_KEY));
+    }
 
-        System.out.printf("OverflowItemBuffer: Expelling blockIntId=%d, count=%d%n", blockIntId, (count & 0xFF));
-        // Actual expulsion logic
+    /** Inverse of {@link #keyName}; {@link #NIL} for an item that is no longer registered. */
+    private static int parseKey(String name) {
+        if (!name.startsWith(ITEM_KEY_PREFIX)) return Integer.parseInt(name);
+        ResourceLocation itemName = ResourceLocation.tryParse(name.substring(ITEM_KEY_PREFIX.length()));
+        Item item = itemName == null ? Items.AIR : BuiltInRegistries.ITEM.get(itemName);
+        return item == Items.AIR ? NIL : ITEM_KEY | BuiltInRegistries.ITEM.getId(item);
     }
 }
@@ -0,0 +1,34 @@
+package com.nicholasblue.quarrymod.item;
+
+import net.minecraft.nbt.CompoundTag;
+
+import javax.annotation.Nullable;
+
+/**
+ * Where an item buffer delivers the entries it pays out. Buffers hold ids (and the
+ * NBT of item-keyed overflow entries) only; the sink decides what a payout becomes.
+ */
+@FunctionalInterface
+public interface PayoutSink {
+
+    /**
+     * Accepts every entry and spawns nothing: the buffer's debug log is the only trace
+     * of the payout, as before delivery went through a sink.
+     */
+    PayoutSink RELEASE = (blockIntId, count) -> true;
+
+    /**
+     * Delivers {@code count} items of the block with int id {@code blockIntId}.
+     * Returns {@code false} if nothing could be delivered right now, in which case the
+     * buffer keeps the entry and offers it again on a later scan.
+     */
+    boolean deliver(int blockIntId, int count);
+
+    /**
+     * Overflow entries may be item-keyed ({@link OverflowItemBuffer#ITEM_KEY}) and carry
+     * the NBT of the stack they came from; sinks that care override this.
+     */
+    default boolean deliver(int key, int count, @Nullable CompoundTag tag) {
+        return deliver(key, count);
+    }
+}
@@ -1,21 +1,21 @@
 package com.nicholasblue.quarrymod.manager;
 
+import com.nicholasblue.quarrymod.Config;
 import com.nicholasblue.quarrymod.ISP.ImmutableStatePool;
 import com.nicholasblue.quarrymod.QuarryMod;
-import com.nicholasblue.quarrymod.data.BlockIndexer;
 import com.nicholasblue.quarrymod.data.QuarryBlockData;
 import com.nicholasblue.quarrymod.data.QuarryRuntimeState;
 import com.nicholasblue.quarrymod.data.QuarrySuppressionSavedData;
-import com.nicholasblue.quarrymod.item.ItemBuffer;
+import com.nicholasblue.quarrymod.item.BufferTiming;
+import com.nicholasblue.quarrymod.item.PayoutSink;
 import com.nicholasblue.quarrymod.suppression.GlobalSuppressionIndex;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
-import net.minecraft.world.level.block.Block;
-import net.minecraft.world.level.block.Blocks;
-import net.minecraft.world.level.block.entity.BlockEntity;
-import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.ChunkEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 
@@ -46,7 +46,13 @@ public final class CentralQuarryManager {
     public static final CentralQuarryManager INSTANCE = new CentralQuarryManager();
     private CentralQuarryManager() {}
     private final QuarryRegistry registry = new QuarryRegistry();
-    private final Long2ObjectOpenHashMap<QuarryRuntimeState> runtimeStates = new Long2ObjectOpenHashMap<>();
+    private final QuarryRuntimeStore store = new QuarryRuntimeStore();
+    private final ExcavationEngine engine = new ExcavationEngine();
+    /** Ticks between re-checks of parked quarries (see {@link QuarryRuntimeStore#retryParked}). */
+    static final int PARKED_RETRY_TICKS = 100;
+
+    /** Reused per-tick list of due slots (see {@link #tickAll}). */
+    private final IntArrayList due = new IntArrayList();
 
 
     /* ─────────────────────── Global registry (lock‑free) ───────────────────── */
@@ -68,7 +74,7 @@ public final class CentralQuarryManager {
         // These operations are on CQM's own data structures or global state,
         // assumed to be called from a safe context (server thread, during tick or controlled setup like onPlace).
         QuarryRuntimeState runtime = new QuarryRuntimeState(data.startY, 0, true);
-        runtimeStates.put(key, runtime); // runtimeStates is managed by CQM, assumed to be mutated on server thread.
+        store.add(data, runtime); // store is managed by CQM, assumed to be mutated on server thread.
 
         // CRITICAL: This call adds the initial suppression. Only for new quarries.
         GlobalSuppressionIndex.INSTANCE.addFullShellLayer(data.origin, data.xSize, data.zSize, data.startY);
@@ -85,15 +91,29 @@ public final class CentralQuarryManager {
         return registry;
     }
 
-    // Getter for runtimeStates (if QuarryStatePersistenceManager needs it - it does)
-    public Long2ObjectOpenHashMap<QuarryRuntimeState> getRuntimeStates() {
-        return runtimeStates;
+    /**
+     * Detached copies of every quarry's runtime state, keyed by quarry position
+     * (for QuarryStatePersistenceManager). Buffers are shared, primitives are not.
+     */
+    public Long2ObjectOpenHashMap<QuarryRuntimeState> snapshotRuntimeStates() {
+        Long2ObjectOpenHashMap<QuarryRuntimeState> out = new Long2ObjectOpenHashMap<>(store.size());
+        store.forEach((key, slot) -> out.put(key, store.export(slot)));
+        return out;
     }
 
-    // Setter for runtimeStates (for QuarryStatePersistenceManager)
+    /**
+     * Replaces all runtime state (for QuarryStatePersistenceManager). Must run after the
+     * registry has been restored: states without a registered config are dropped.
+     */
     public void restoreRuntimeStates(Long2ObjectOpenHashMap<QuarryRuntimeState> restoredRuntimes) {
-        this.runtimeStates.clear();
-        this.runtimeStates.putAll(restoredRuntimes);
+        this.store.clear();
+        Long2ObjectOpenHashMap<QuarryBlockData> configs = registry.snapshot();
+        for (Long2ObjectOpenHashMap.Entry<QuarryRuntimeState> entry : restoredRuntimes.long2ObjectEntrySet()) {
+            QuarryBlockData config = configs.get(entry.getLongKey());
+            if (config != null) {
+                store.add(config, entry.getValue());
+            }
+        }
     }
 
 
@@ -101,7 +121,11 @@ public final class CentralQuarryManager {
         long key = quarryPos.asLong();
 
         QuarryBlockData removedConfig = registry.unregister(key);
-        QuarryRuntimeState removedState = runtimeStates.remove(key); // Remove runtime state regardless of config state
+        int slot = store.slotOf(key);
+        if (slot >= 0 && store.isRunning(slot)) {
+            engine.quarryRemoved(store, slot); // relight the partial hole once the shell below is lifted
+        }
+        QuarryRuntimeState removedState = store.remove(key); // Remove runtime state regardless of config state
 
         if (removedConfig != null) { // Only attempt suppression removal if config was actually there
             int currentYToRemoveFrom = removedConfig.startY; // Default to startY if no runtime state
@@ -138,123 +162,103 @@ public final class CentralQuarryManager {
         ImmutableStatePool.INSTANCE.releaseAllThisTick(); // Finalize tick-local state
     }
 
-    private void tickAll(ServerLevel level, int currentTick) {
-        Long2ObjectOpenHashMap<QuarryBlockData> configSnapshot = registry.snapshot();
-        long[] keys = configSnapshot.keySet().toLongArray();
-        java.util.Arrays.sort(keys);
-
-
-
-        for (long key : keys) {
-            QuarryBlockData config = configSnapshot.get(key);
-            QuarryRuntimeState runtime = runtimeStates.get(key);
-
-            // Defensive: ensure both parts are non-null and quarry is active
-            if (config == null || runtime == null || !runtime.isRunning()) {
-                continue;
-            }
-
-            processQuarryTick(level, key, config, runtime, currentTick);
+    /** Drops cached handles to an unloading overworld chunk and parks the quarries that use it. */
+    @SubscribeEvent
+    public static void onChunkUnload(ChunkEvent.Unload evt) {
+        if (evt.getLevel() instanceof ServerLevel level && level.dimension() == ServerLevel.OVERWORLD) {
+            INSTANCE.store.invalidateChunk(evt.getChunk().getPos().toLong());
         }
     }
 
-    @Nullable
-    public QuarryRuntimeState getRuntimeState(BlockPos pos) {
-        return runtimeStates.get(pos.asLong());
+    /** Wakes quarries parked on a chunk that just loaded. */
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkEvent.Load evt) {
+        if (evt.getLevel() instanceof ServerLevel level && level.dimension() == ServerLevel.OVERWORLD
+                && evt.getChunk() instanceof LevelChunk chunk) {
+            INSTANCE.store.wakeChunk(chunk);
+        }
     }
 
-
-
-    /* ─────────────────────── Internal per‑quarry logic  ───────────────────── */
-
     /**
-     * Execute one logical unit of work for a single quarry.
+     * Runs every quarry that is due this tick, within a time budget.
+     *
+     * <p>Each awake quarry sits in the store's timing wheel at the tick its accumulator
+     * will next afford a block, so a tick touches only due quarries, not every
+     * registered one. Due quarries run until {@code tickBudgetNanos} is spent; the
+     * rest are deferred to the front of the next tick and keep the speed they would
+     * have earned as credit (see {@link ExcavationEngine#runBatch}).</p>
      *
-     * Returns number of blocks mined this tick (0 or 1 in current design).
+     * <p>Light reconciliation for finished layers runs first and regardless of how many
+     * quarries are due, so queued chunks drain even while every quarry sleeps. Item
+     * buffers are scanned for expired entries every dupe-checking granularity, for all
+     * quarries, so finished or parked ones still pay out. Parked quarries are re-checked
+     * every {@link #PARKED_RETRY_TICKS}, in case a footprint chunk came back to full
+     * status without a load event.</p>
      */
-    private void processQuarryTick(ServerLevel level, long quarryKey,
-                                   QuarryBlockData config, QuarryRuntimeState runtime, int currentTick) {
-
-        if (!runtime.isRunning()) return;
-
-        int progress = runtime.getProgressCounter();
-        int dx = progress % config.xSize;
-        int dz = progress / config.xSize;
-
-        if (dz >= config.zSize) {
-
-            int currentY = runtime.getCurrentY();
-            int nextY = currentY - 1;
-
-            if (nextY < level.getMinBuildHeight()) {
-                QuarryMod.LOGGER.info("[CQM processQuarryTick] Quarry {} Reached bottom at Y={}. Stopping. Config xS:{} zS:{}",
-                        quarryKey, currentY, config.xSize, config.zSize);
-
-                // Final suppression removal for the entire quarry column
-                GlobalSuppressionIndex.INSTANCE.removeShell(
-                        config.origin, config.xSize, config.zSize,
-                        // Y level it was trying to mine (or minBuildHeight if below)
-                        Math.max(nextY, level.getMinBuildHeight()),
-                        config.startY
-                );
-                QuarrySuppressionSavedData.get(level).setDirty(); // Ensure saved
-                runtime.stop();
-
-            } else {
-                // Not at world bottom, so descend to the next layer
-                //QuarryMod.LOGGER.info("[CQM processQuarryTick] Quarry {} Descending Layer: currentY={}, nextY={}. Progress was {}. Config xS:{} zS:{}", quarryKey, currentY, nextY, progress, config.xSize, config.zSize);
-
-                GlobalSuppressionIndex.INSTANCE.descendShell(
-                        config.origin, config.xSize, config.zSize,
-                        currentY, nextY
-                );
-                QuarrySuppressionSavedData.get(level).setDirty();
-
-                runtime.setCurrentY(nextY);
-                runtime.resetProgress();
+    private void tickAll(ServerLevel level, int currentTick) {
+        engine.reconcileLight(level);
+        engine.refreshConfig();
+        if (BufferTiming.isScanTick(currentTick)) store.expireBuffers(currentTick, PayoutSink.RELEASE);
+        if (currentTick % PARKED_RETRY_TICKS == 0) store.retryParked(level);
+
+        IntArrayList due = this.due;
+        store.collectDue(currentTick, due);
+        int count = due.size();
+        if (count == 0) return;
+
+        long deadline = System.nanoTime() + Config.COMMON.TICK_BUDGET_NANOS.get();
+
+        for (int i = 0; i < count; i++) {
+            int slot = due.getInt(i);
+            // An earlier batch may have broken this quarry's block (unregisterQuarry frees
+            // the slot), or stopped or parked it; the slot is still in this tick's list.
+            if (!store.isTickable(slot)) continue;
+            engine.runBatch(level, store, slot, currentTick);
+            if (store.isTickable(slot)) { // may have finished or parked during the batch
+                store.scheduleIn(slot, engine.ticksUntilDue(store, slot));
             }
-            return;
-        }
-
-        BlockPos.MutableBlockPos scratch = ImmutableStatePool.INSTANCE.unsafeMutablePos();
-        scratch.set(config.origin.getX() + dx, runtime.getCurrentY(), config.origin.getZ() + dz);
-        BlockPos target = scratch.immutable();
-
-        BlockState state = level.getBlockState(target);
-        Block targetBlock = state.getBlock();
-
-        if (!state.isAir() && targetBlock != Blocks.BEDROCK) {
-
-            BlockEntity blockEntity = level.getBlockEntity(target);
-
-            boolean liquid = !state.getFluidState().isEmpty();
-
-            boolean isComplexBlock = blockEntity != null;
-            if (!GlobalSuppressionIndex.INSTANCE.isSuppressed(target)){
-                System.out.println("SUPPRESSION FAILED BEFORE: " + target);
-            };
-            level.setBlock(target, Blocks.AIR.defaultBlockState(), Block.UPDATE_CLIENTS, 0);
-            if (!GlobalSuppressionIndex.INSTANCE.isSuppressed(target)){
-                System.out.println("SUPPRESSION FAILED AFTER: " + target);
-            };
-            if (isComplexBlock || liquid) {
-                // Logic to get the ItemStack *with* NBT data for 'targetBlock' at 'target'
-            } else {
-                short id = BlockIndexer.tryGetShortId(targetBlock);
-                if(!(id==-1)){
-                    ItemBuffer buf = runtime.getItemBuffer();
-                    buf.tick(currentTick);
-                    buf.add(id, currentTick);
 
+            if (System.nanoTime() - deadline >= 0) {
+                for (int j = i + 1; j < count; j++) {
+                    int later = due.getInt(j);
+                    if (store.isTickable(later)) store.defer(later);
                 }
-                else{
-                    runtime.getOverflowBuffer().add(BlockIndexer.getIntId(targetBlock), currentTick);
-                }
+                break;
             }
         }
 
-        runtime.advanceProgress(); // mutate in-place
+        engine.flushClientUpdates(level);
     }
 
+    /**
+     * Installs one upgrade unit of {@code tier} (1 or 2) in the quarry at {@code pos}.
+     * Returns {@code false}, installing nothing, if no quarry is registered there, the
+     * tier has no speed term, or the quarry already holds the configured maximum of it.
+     * A running quarry is rescheduled at its new speed.
+     */
+    public boolean installUpgrade(BlockPos pos, int tier) {
+        int slot = store.slotOf(pos.asLong());
+        if (slot < 0) return false;
+        int[] units;
+        int max;
+        switch (tier) {
+            case 1 -> { units = store.upgrade1Units; max = Config.COMMON.UPGRADE1_MAX_UNITS.get(); }
+            case 2 -> { units = store.upgrade2Units; max = Config.COMMON.UPGRADE2_MAX_UNITS.get(); }
+            default -> { return false; }
+        }
+        if (units[slot] >= max) return false;
+        units[slot]++;
 
+        if (store.isTickable(slot)) {
+            store.scheduleIn(slot, engine.ticksUntilDue(store, slot));
+        }
+        return true;
+    }
+
+    /** Detached copy of one quarry's runtime state (buffers shared), or {@code null}. */
+    @Nullable
+    public QuarryRuntimeState getRuntimeState(BlockPos pos) {
+        int slot = store.slotOf(pos.asLong());
+        return slot < 0 ? null : store.export(slot);
+    }
 }
@@ -0,0 +1,224 @@
+package com.nicholasblue.quarrymod.manager;
+
+import com.nicholasblue.quarrymod.data.BlockIndexer;
+import com.nicholasblue.quarrymod.item.ItemBuffer;
+import com.nicholasblue.quarrymod.item.OverflowItemBuffer;
+import com.nicholasblue.quarrymod.mixin.AccessorLootContextBuilder;
+import it.unimi.dsi.fastutil.objects.Object2BooleanOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.ProblemReporter;
+import net.minecraft.util.RandomSource;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.levelgen.PositionalRandomFactory;
+import net.minecraft.world.level.storage.loot.BuiltInLootTables;
+import net.minecraft.world.level.storage.loot.LootContext;
+import net.minecraft.world.level.storage.loot.LootDataManager;
+import net.minecraft.world.level.storage.loot.LootParams;
+import net.minecraft.world.level.storage.loot.LootTable;
+import net.minecraft.world.level.storage.loot.ValidationContext;
+import net.minecraft.world.level.storage.loot.parameters.LootContextParamSet;
+import net.minecraft.world.level.storage.loot.parameters.LootContextParamSets;
+import net.minecraft.world.level.storage.loot.parameters.LootContextParams;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Loot-table drops for the blocks the engine cannot simply buffer as themselves
+ * (block entities such as chests and modded machines, and blocks tagged
+ * {@code quarrymod:no_silk_touch}).
+ *
+ * <p>Drops are resolved through {@link BlockState#getDrops} with one reused
+ * {@link LootParams.Builder} and an empty tool, as a quarry has no tool. Tables that
+ * turn out to be deterministic for a given {@link BlockState} have their result
+ * memoized, so the loot context is only built once per state instead of once per
+ * block. A state is memoized when, on its first resolution:</p>
+ * <ul>
+ *   <li>the table does not read the block entity, if the state has one (checked by
+ *       validating the table against the block parameter set without it); and</li>
+ *   <li>a second run of the table with a probing random source draws no random
+ *       number at all (random chances, random counts, loot modifiers using the
+ *       context's random) and yields the same stacks as the regular resolution.</li>
+ * </ul>
+ * <p>Location- or weather-dependent conditions are not detected; block tables that use
+ * them are rare enough that a memoized result for them is accepted. The memo holds at
+ * most {@link #MAX_MEMOIZED_STATES} states, and is dropped when loot tables reload.</p>
+ *
+ * <p>Resolved stacks whose item places an indexed block go into the quarry's buffers
+ * under that block's id; anything else (plain items such as diamonds or redstone,
+ * stacks carrying NBT) goes into the overflow buffer under its item id
+ * ({@link OverflowItemBuffer#addStack}), so every drop is held by the dupe-protection
+ * buffers. Server thread only.</p>
+ */
+final class DropResolver {
+
+    /** Upper bound on states remembered, memoized or not. */
+    static final int MAX_MEMOIZED_STATES = 4096;
+
+    /** The block parameter set minus {@code BLOCK_ENTITY}; validating against it reports tables that read one. */
+    private static final LootContextParamSet WITHOUT_BLOCK_ENTITY = LootContextParamSet.builder()
+            .required(LootContextParams.ORIGIN)
+            .required(LootContextParams.BLOCK_STATE)
+            .required(LootContextParams.TOOL)
+            .optional(LootContextParams.THIS_ENTITY)
+            .optional(LootContextParams.EXPLOSION_RADIUS)
+            .build();
+
+    private static final ItemStack[] NO_DROPS = new ItemStack[0];
+
+    private final Reference2ObjectOpenHashMap<BlockState, ItemStack[]> memo = new Reference2ObjectOpenHashMap<>();
+    private final ReferenceOpenHashSet<BlockState> unmemoizable = new ReferenceOpenHashSet<>();
+    private final Object2BooleanOpenHashMap<ResourceLocation> readsBlockEntity = new Object2BooleanOpenHashMap<>();
+    private final ProbeRandom probe = new ProbeRandom();
+
+    @Nullable private ServerLevel builderLevel;
+    @Nullable private LootParams.Builder params;
+    @Nullable private LootDataManager lootData;
+
+    /**
+     * Resolves the drops of {@code state} at {@code pos} and routes them. Must be called
+     * before the block is removed, while {@code blockEntity} is still intact.
+     */
+    void resolve(ServerLevel level, BlockPos pos, BlockState state, @Nullable BlockEntity blockEntity,
+                 ItemBuffer items, OverflowItemBuffer overflow, int currentTick) {
+        LootDataManager current = level.getServer().getLootData();
+        if (current != lootData) { // first use, or /reload swapped the tables
+            lootData = current;
+            memo.clear();
+            unmemoizable.clear();
+            readsBlockEntity.clear();
+        }
+
+        ItemStack[] known = memo.get(state);
+        if (known != null) {
+            for (ItemStack stack : known) {
+                route(stack, items, overflow, currentTick);
+            }
+            return;
+        }
+
+        LootParams.Builder builder = paramsFor(level, pos, blockEntity);
+        List<ItemStack> drops = state.getDrops(builder);
+
+        if (memo.size() + unmemoizable.size() < MAX_MEMOIZED_STATES && !unmemoizable.contains(state)) {
+            if (isDeterministic(state, blockEntity, builder, drops)) {
+                memo.put(state, copyOf(drops));
+            } else {
+                unmemoizable.add(state);
+            }
+        }
+
+        for (ItemStack stack : drops) {
+            route(stack, items, overflow, currentTick);
+        }
+    }
+
+    private LootParams.Builder paramsFor(ServerLevel level, BlockPos pos, @Nullable BlockEntity blockEntity) {
+        if (params == null || builderLevel != level) {
+            params = new LootParams.Builder(level);
+            builderLevel = level;
+        }
+        return params
+                .withParameter(LootContextParams.ORIGIN, Vec3.atCenterOf(pos))
+                .withParameter(LootContextParams.TOOL, ItemStack.EMPTY)
+                .withOptionalParameter(LootContextParams.BLOCK_ENTITY, blockEntity);
+    }
+
+    /* ───────── determinism test ───────── */
+
+    private boolean isDeterministic(BlockState state, @Nullable BlockEntity blockEntity,
+                                    LootParams.Builder builder, List<ItemStack> resolved) {
+        ResourceLocation tableId = state.getBlock().getLootTable();
+        if (tableId == BuiltInLootTables.EMPTY) return resolved.isEmpty();
+        LootTable table = lootData.getLootTable(tableId);
+        if (blockEntity != null && tableReadsBlockEntity(tableId, table)) return false;
+
+        LootContext.Builder context = new LootContext.Builder(
+                builder.withParameter(LootContextParams.BLOCK_STATE, state).create(LootContextParamSets.BLOCK));
+        ((AccessorLootContextBuilder) context).quarrymod$setRandom(probe.reset());
+        ObjectArrayList<ItemStack> probed = table.getRandomItems(context.create(null));
+
+        return !probe.used && sameStacks(probed, resolved);
+    }
+
+    private boolean tableReadsBlockEntity(ResourceLocation tableId, LootTable table) {
+        if (readsBlockEntity.containsKey(tableId)) return readsBlockEntity.getBoolean(tableId);
+        ProblemReporter.Collector problems = new ProblemReporter.Collector();
+        table.validate(new ValidationContext(problems, WITHOUT_BLOCK_ENTITY, lootData));
+        boolean reads = !problems.get().isEmpty(); // any other problem also counts: not worth memoizing
+        readsBlockEntity.put(tableId, reads);
+        return reads;
+    }
+
+    private static boolean sameStacks(List<ItemStack> a, List<ItemStack> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!ItemStack.matches(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static ItemStack[] copyOf(List<ItemStack> drops) {
+        if (drops.isEmpty()) return NO_DROPS;
+        ItemStack[] copy = new ItemStack[drops.size()];
+        for (int i = 0; i < copy.length; i++) copy[i] = drops.get(i).copy();
+        return copy;
+    }
+
+    /* ───────── routing ───────── */
+
+    /**
+     * Buffers {@code stack} under its block's id if it is a plain stack of an indexed
+     * block's item, otherwise under its item id. Never modifies {@code stack}, which may
+     * be a memoized one.
+     */
+    private static void route(ItemStack stack, ItemBuffer items, OverflowItemBuffer overflow, int currentTick) {
+        if (stack.isEmpty()) return;
+        Block block = Block.byItem(stack.getItem());
+        if (block != Blocks.AIR && !stack.hasTag()) {
+            short id = BlockIndexer.tryGetShortId(block);
+            if (id != BlockIndexer.SHORT_ID_UNAVAILABLE) {
+                items.add(id, stack.getCount(), currentTick);
+                return;
+            }
+            int intId = BlockIndexer.intIdOrUnavailable(block);
+            if (intId != BlockIndexer.INT_ID_UNAVAILABLE) {
+                overflow.add(intId, stack.getCount(), currentTick);
+                return;
+            }
+        }
+        overflow.addStack(stack, currentTick);
+    }
+
+    /** Random source that records whether a loot table drew from it. */
+    private static final class ProbeRandom implements RandomSource {
+        private final RandomSource delegate = RandomSource.create(0L);
+        boolean used;
+
+        ProbeRandom reset() {
+            used = false;
+            return this;
+        }
+
+        @Override public RandomSource fork() { used = true; return delegate.fork(); }
+        @Override public PositionalRandomFactory forkPositional() { used = true; return delegate.forkPositional(); }
+        @Override public void setSeed(long seed) { used = true; delegate.setSeed(seed); }
+        @Override public int nextInt() { used = true; return delegate.nextInt(); }
+        @Override public int nextInt(int bound) { used = true; return delegate.nextInt(bound); }
+        @Override public long nextLong() { used = true; return delegate.nextLong(); }
+        @Override public boolean nextBoolean() { used = true; return delegate.nextBoolean(); }
+        @Override public float nextFloat() { used = true; return delegate.nextFloat(); }
+        @Override public double nextDouble() { used = true; return delegate.nextDouble(); }
+        @Override public double nextGaussian() { used = true; return delegate.nextGaussian(); }
+    }
+}
@@ -0,0 +1,639 @@
+package com.nicholasblue.quarrymod.manager;
+
+import com.nicholasblue.quarrymod.Config;
+import com.nicholasblue.quarrymod.ISP.ImmutableStatePool;
+import com.nicholasblue.quarrymod.QuarryMod;
+import com.nicholasblue.quarrymod.data.BlockIndexer;
+import com.nicholasblue.quarrymod.data.QuarryBlockData;
+import com.nicholasblue.quarrymod.data.QuarrySuppressionSavedData;
+import com.nicholasblue.quarrymod.suppression.GlobalSuppressionIndex;
+import com.nicholasblue.quarrymod.util.SectionModCount;
+import com.nicholasblue.quarrymod.util.SuppressionBypass;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import com.nicholasblue.quarrymod.item.BufferTiming;
+import com.nicholasblue.quarrymod.item.ItemBuffer;
+import com.nicholasblue.quarrymod.item.OverflowItemBuffer;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.ChunkSkyLightSources;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Batched excavation kernel driven by {@link CentralQuarryManager}.
+ *
+ * <p>Every quarry carries a fixed-point progress accumulator
+ * ({@link QuarryRuntimeStore#miningProgress}). Each server tick the quarry's
+ * effective speed is added to it, and every whole {@link #PROGRESS_PER_BLOCK}
+ * buys one position of the sweep. All positions bought in a tick are visited in
+ * one tight loop; cursor write-back, layer descent and suppression persistence
+ * are settled once per batch rather than once per block.</p>
+ *
+ * <p>Before touching individual positions the engine consults the chunk section
+ * palette. A sweep run that lies in a section holding nothing but air and bedrock
+ * is skipped in O(1) and costs no progress; a layer whose every section is
+ * skippable is descended through without visiting a single position.</p>
+ *
+ * <p>Runs inside a suppressed quarry interior are harvested in bulk: no neighbour
+ * updates, light checks or block ticks can fire there, so states are read and
+ * overwritten with air straight through the {@link LevelChunkSection} instead of
+ * {@code Level.setBlock}. Mined blocks are tallied per item id over the whole
+ * batch and pushed into the item buffers as one counted insert per type.</p>
+ *
+ * <p>Chunks are resolved through the per-slot handle cache in
+ * {@link QuarryRuntimeStore} ({@link #chunkAt}), and block states are read from the
+ * section itself, so the level's chunk lookup is only paid on a cache miss or for
+ * the write half of a non-suppressed break. Chunks are only ever taken if already
+ * loaded ({@code getChunkNow}); a quarry whose footprint is not fully loaded is
+ * parked before it spends anything, so the tick loop never forces a chunk load.</p>
+ *
+ * <p>Suppressed runs prefer the quarry's precomputed {@link LayerLookahead.LayerPlan}
+ * for the layer: the bulk path then only visits planned targets and takes their
+ * states and item ids from the plan instead of reading and classifying each
+ * position on the server thread.</p>
+ *
+ * <p>Client updates for bulk-harvested positions are collected per section by a
+ * {@link SectionUpdateBatcher} and sent once per tick ({@link #flushClientUpdates}),
+ * unless {@code batchClientUpdates} is off, in which case every position is handed to
+ * the chunk holder as before.</p>
+ *
+ * <p>Because bulk writes bypass {@code LevelChunk.setBlockState}, heightmaps and
+ * sky-light sources are not touched per block either. They are settled once per
+ * finished layer in a single pass over the footprint columns ({@link #settleColumns}).</p>
+ *
+ * <p>Lighting is not maintained per block. Finished layers queue their footprint
+ * chunks with a {@link LightReconciler}, which relights them as whole chunks a few per
+ * tick ({@link #reconcileLight}); light-emitting blocks removed by the bulk paths are
+ * remembered per quarry and rechecked once it finishes.</p>
+ *
+ * <p>Speeds use the config unit "percent of a block per second": 100 is one
+ * block per second, so one block costs 100 × 20 ticks of accumulated speed.</p>
+ *
+ * <p>Server thread only. Not thread-safe.</p>
+ */
+final class ExcavationEngine {
+
+    /** Accumulated speed needed to excavate one position (100% × 20 ticks). */
+    static final int PROGRESS_PER_BLOCK = 100 * 20;
+
+    /** Hard ceiling on positions one quarry may visit in a single tick. */
+    static final int MAX_BLOCKS_PER_TICK = 128;
+
+    /**
+     * Ceiling on banked progress, in blocks. Speed a quarry could not spend (budget
+     * ran out, or it was above {@link #MAX_BLOCKS_PER_TICK}) is kept up to this much.
+     */
+    static final int MAX_CREDIT_BLOCKS = 4 * MAX_BLOCKS_PER_TICK;
+
+    /** Ticks of missed service that are credited at most, in case a quarry was skipped for long. */
+    static final int MAX_CREDIT_TICKS = 200;
+
+    /** Ceiling on layers one quarry may descend in a single tick (palette skips are free otherwise). */
+    static final int MAX_LAYERS_PER_TICK = 16;
+
+    private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+
+    /** The heightmaps {@code LevelChunk.setBlockState} keeps current on a full chunk. */
+    private static final Heightmap.Types[] SETTLED_HEIGHTMAPS = {
+            Heightmap.Types.WORLD_SURFACE,
+            Heightmap.Types.OCEAN_FLOOR,
+            Heightmap.Types.MOTION_BLOCKING,
+            Heightmap.Types.MOTION_BLOCKING_NO_LEAVES
+    };
+
+    /**
+     * States that go through {@link #harvest} even inside a suppressed interior: block
+     * entities need the level to tear them down, and both they and no-silk-touch blocks
+     * yield their loot drops rather than themselves.
+     */
+    private static final int LOOT_FLAGS = BlockIndexer.F_BLOCK_ENTITY | BlockIndexer.F_NO_SILK_TOUCH;
+
+    /**
+     * States the bulk paths hand to {@link #harvest}: the loot states, plus states that
+     * claim a POI, which only {@code level.setBlock} releases from the POI manager.
+     */
+    private static final int LEVEL_WRITE_FLAGS = LOOT_FLAGS | BlockIndexer.F_POI;
+
+    /**
+     * Per-batch tally of bulk-harvested items by buffer id ({@link BlockIndexer#itemIdAt}),
+     * flushed into the buffers once per batch.
+     */
+    private final Int2IntOpenHashMap idTally = new Int2IntOpenHashMap();
+
+    private final LayerLookahead lookahead = new LayerLookahead();
+    private final SectionUpdateBatcher clientUpdates = new SectionUpdateBatcher();
+    private final LightReconciler lighting = new LightReconciler();
+    private final DropResolver drops = new DropResolver();
+    /** Per-batch positions of light emitters removed by the bulk paths, moved into the store once per batch. */
+    private final LongArrayList minedEmitters = new LongArrayList();
+    /** Reused by {@link #settleColumns}: one chunk's {@link #SETTLED_HEIGHTMAPS}. */
+    private final Heightmap[] heightmaps = new Heightmap[SETTLED_HEIGHTMAPS.length];
+
+    /* ───────── per-tick config snapshot (config reads hoisted out of the loop) ───────── */
+
+    private int baseSpeed;
+    private int upgrade1Speed;
+    private int upgrade2Speed;
+    private boolean batchClientUpdates;
+
+    /** Re-reads speed values and mining options from config. Called once per server tick. */
+    void refreshConfig() {
+        this.baseSpeed     = Config.COMMON.BASE_MINING_SPEED.get();
+        this.upgrade1Speed = Config.COMMON.UPGRADE1_SPEED_PER_UNIT.get();
+        this.upgrade2Speed = Config.COMMON.UPGRADE2_SPEED_PER_UNIT.get();
+        this.batchClientUpdates = Config.COMMON.BATCH_CLIENT_UPDATES.get();
+        BufferTiming.refresh();
+    }
+
+    /** Sends the client updates collected by this tick's batches. Called once per server tick. */
+    void flushClientUpdates(ServerLevel level) {
+        clientUpdates.flush(level);
+    }
+
+    /** Relights a few chunks queued by finished layers. Called once per server tick. */
+    void reconcileLight(ServerLevel level) {
+        lighting.tick(level);
+    }
+
+    /** Queues the final relight of a quarry that is being removed before it reached the bottom. */
+    void quarryRemoved(QuarryRuntimeStore store, int slot) {
+        settleColumns(store, slot, store.currentY[slot]); // the partly mined layer
+        lighting.quarryFinished(store, slot);
+    }
+
+    @Nullable
+    private SectionUpdateBatcher.SectionChanges clientChangesFor(LevelChunk chunk, LevelChunkSection section,
+                                                                 int x, int y, int z) {
+        return batchClientUpdates ? clientUpdates.changesFor(chunk, section, x >> 4, y >> 4, z >> 4) : null;
+    }
+
+    /** Effective speed of one quarry, in config speed units per tick. */
+    int effectiveSpeed(QuarryRuntimeStore store, int slot) {
+        return baseSpeed
+                + store.upgrade1Units[slot] * upgrade1Speed
+                + store.upgrade2Units[slot] * upgrade2Speed;
+    }
+
+    /**
+     * Ticks until {@code slot} can afford its next position at its current speed,
+     * between 1 and {@link #MAX_CREDIT_TICKS}. A quarry slower than one block per
+     * {@code MAX_CREDIT_TICKS} simply banks the capped credit on each visit.
+     */
+    int ticksUntilDue(QuarryRuntimeStore store, int slot) {
+        int missing = PROGRESS_PER_BLOCK - store.miningProgress[slot];
+        if (missing <= 0) return 1;
+        int speed = effectiveSpeed(store, slot);
+        if (speed <= 0) return MAX_CREDIT_TICKS;
+        return Math.min((missing + speed - 1) / speed, MAX_CREDIT_TICKS);
+    }
+
+    /* ───────── batch execution ───────── */
+
+    /**
+     * Credits the speed earned since the quarry was last serviced and excavates every
+     * position it can afford, up to {@link #MAX_BLOCKS_PER_TICK}. Whatever is left over
+     * stays in the accumulator as credit for later ticks.
+     *
+     * @return number of sweep positions visited this tick
+     */
+    int runBatch(ServerLevel level, QuarryRuntimeStore store, int slot, int currentTick) {
+
+        int last = store.lastServicedTick[slot];
+        int elapsed = last < 0 ? 1 : Math.min(Math.max(currentTick - last, 1), MAX_CREDIT_TICKS);
+        store.lastServicedTick[slot] = currentTick;
+
+        long accumulated = store.miningProgress[slot] + (long) effectiveSpeed(store, slot) * elapsed;
+        accumulated = Math.min(accumulated, (long) MAX_CREDIT_BLOCKS * PROGRESS_PER_BLOCK);
+        int budget = (int) Math.min(accumulated / PROGRESS_PER_BLOCK, MAX_BLOCKS_PER_TICK);
+        store.miningProgress[slot] = (int) (accumulated - (long) budget * PROGRESS_PER_BLOCK);
+        if (budget == 0) return 0;
+
+        if (!acquireChunks(level, store, slot)) {
+            // Part of the footprint is unloaded: park until ChunkEvent.Load, keep the credit.
+            store.miningProgress[slot] += budget * PROGRESS_PER_BLOCK;
+            store.park(slot);
+            return 0;
+        }
+        lookahead.ensureNext(store, slot, store.currentY[slot], level.getMinBuildHeight());
+
+        final int xSize = store.xSize[slot];
+        final int zSize = store.zSize[slot];
+        final int baseX = store.originX[slot];
+        final int baseZ = store.originZ[slot];
+        final int minY  = level.getMinBuildHeight();
+        final ItemBuffer items = store.itemBuffers[slot];
+        final OverflowItemBuffer overflow = store.overflowBuffers[slot];
+
+        int progress = store.progress[slot];
+        int y  = store.currentY[slot];
+        int dx = progress % xSize;
+        int dz = progress / xSize;
+
+        boolean suppressionDirty = false;
+        boolean finished = false;
+        int visited = 0;
+        int layersDescended = 0;
+
+        BlockPos.MutableBlockPos cursor = ImmutableStatePool.INSTANCE.unsafeMutablePos();
+
+        while (visited < budget) {
+            if (dz == 0 && dx == 0 && isLayerSkippable(store, slot, y)) {
+                progress = xSize * zSize;
+                dz = zSize;
+            }
+
+            if (dz >= zSize) {
+                int nextY = y - 1;
+                QuarryBlockData config = store.config[slot]; // cold: once per layer, not per block
+                if (nextY < minY) {
+                    QuarryMod.LOGGER.info("[CQM] Quarry {} reached bottom at Y={}. Stopping. Config xS:{} zS:{}",
+                            store.key[slot], y, xSize, zSize);
+                    settleColumns(store, slot, y);
+                    GlobalSuppressionIndex.INSTANCE.removeShell(
+                            config.origin, xSize, zSize, Math.max(nextY, minY), config.startY);
+                    suppressionDirty = true;
+                    store.activePlan[slot] = null;
+                    store.nextPlan[slot] = null;
+                    store.stop(slot);
+                    finished = true;
+                    break;
+                }
+                GlobalSuppressionIndex.INSTANCE.descendShell(config.origin, xSize, zSize, y, nextY);
+                settleColumns(store, slot, y);
+                suppressionDirty = true;
+                y = nextY;
+                dx = 0;
+                dz = 0;
+                progress = 0;
+                lookahead.onLayerEntered(store, slot, y);
+                lookahead.ensureNext(store, slot, y, minY);
+                if (++layersDescended >= MAX_LAYERS_PER_TICK) break;
+                continue;
+            }
+
+            // A run is the stretch of the current row that stays inside one chunk column.
+            int worldX = baseX + dx;
+            int worldZ = baseZ + dz;
+            int runEnd = Math.min(xSize, ((worldX | 15) + 1) - baseX);
+            LevelChunk chunk = chunkAt(store, slot, worldX >> 4, worldZ >> 4);
+            LevelChunkSection section = sectionOf(chunk, y);
+            int ci = chunkIndex(store, slot, worldX >> 4, worldZ >> 4);
+
+            if (isSkippable(store, slot, ci, section)) {
+                progress += runEnd - dx;
+                dx = runEnd;
+            } else {
+                int start = dx;
+                int stop = Math.min(runEnd, dx + (budget - visited));
+                if (GlobalSuppressionIndex.INSTANCE.isSuppressed(cursor.set(worldX, y, worldZ))) {
+                    LayerLookahead.LayerPlan plan = store.activePlan[slot];
+                    int writes = plan != null && plan.y == y && plan.appliesTo(ci, section)
+                            ? plannedHarvest(level, chunk, section, plan, baseX, xSize, start, stop, dz, y, worldZ,
+                                             items, overflow, currentTick, cursor)
+                            : bulkHarvest(level, chunk, section, baseX + start, baseX + stop, y, worldZ,
+                                          items, overflow, currentTick, cursor);
+                    LayerLookahead.noteWrites(store, slot, ci, section, writes);
+                } else {
+                    final int ly = y & 15;
+                    final int lz = worldZ & 15;
+                    int writes = 0;
+                    for (int x = baseX + start; x < baseX + stop; x++) {
+                        BlockState state = section.getBlockState(x & 15, ly, lz);
+                        if (!isExcavatable(state)) continue;
+                        harvest(level, cursor.set(x, y, worldZ), state, items, overflow, currentTick);
+                        writes++;
+                    }
+                    if (writes > 0) {
+                        // one section write each; neighbour reactions still invalidate the plan
+                        LayerLookahead.noteWrites(store, slot, ci, section, writes);
+                    }
+                }
+                dx = stop;
+                visited += stop - start;
+                progress += stop - start;
+            }
+
+            if (dx == xSize) {
+                dx = 0;
+                dz++;
+            }
+        }
+
+        if (visited < budget && store.isRunning(slot)) {
+            // Stopped early on the layer ceiling; unspent blocks go back into credit.
+            store.miningProgress[slot] += (budget - visited) * PROGRESS_PER_BLOCK;
+        }
+
+        flushTally(items, overflow, currentTick);
+        if (!minedEmitters.isEmpty()) {
+            lighting.emittersMined(store, slot, minedEmitters);
+            minedEmitters.clear();
+        }
+        if (finished) {
+            lighting.quarryFinished(store, slot);
+        } else if (layersDescended > 0) {
+            lighting.layersFinished(store, slot);
+        }
+        store.currentY[slot] = y;
+        store.progress[slot] = progress;
+        if (suppressionDirty) {
+            QuarrySuppressionSavedData.get(level).setDirty();
+        }
+        return visited;
+    }
+
+    /* ───────── chunk handles ───────── */
+
+    /**
+     * Fills the slot's handle cache with every footprint chunk that is already loaded.
+     * Never loads or generates a chunk.
+     *
+     * @return {@code false} if any footprint chunk is not loaded
+     */
+    private static boolean acquireChunks(ServerLevel level, QuarryRuntimeStore store, int slot) {
+        LevelChunk[] cached = store.chunks[slot];
+        int spanZ = store.chunkSpanZ[slot];
+        for (int i = 0; i < cached.length; i++) {
+            if (cached[i] != null) continue;
+            LevelChunk chunk = level.getChunkSource().getChunkNow(
+                    store.minChunkX[slot] + i / spanZ, store.minChunkZ[slot] + i % spanZ);
+            if (chunk == null) return false;
+            cached[i] = chunk;
+        }
+        return true;
+    }
+
+    /**
+     * Footprint chunk {@code (cx, cz)} of {@code slot}, from the slot's handle cache.
+     * Only valid after {@link #acquireChunks} succeeded this tick.
+     */
+    private static LevelChunk chunkAt(QuarryRuntimeStore store, int slot, int cx, int cz) {
+        return store.chunks[slot][chunkIndex(store, slot, cx, cz)];
+    }
+
+    private static int chunkIndex(QuarryRuntimeStore store, int slot, int cx, int cz) {
+        return (cx - store.minChunkX[slot]) * store.chunkSpanZ[slot] + (cz - store.minChunkZ[slot]);
+    }
+
+    /* ───────── heightmaps and sky-light sources ───────── */
+
+    /**
+     * Settles the heightmaps and sky-light sources of every footprint column after layer
+     * {@code y} was excavated: one update per column and heightmap, each of which scans
+     * down only as far as the column's next opaque block. The sky-source update is run
+     * under {@link SuppressionBypass}, since the suppression mixin would cancel it for
+     * positions still inside the shell. States are read live, so columns the layer has
+     * not reached yet are left alone. Chunks without a cached handle are skipped.
+     */
+    private void settleColumns(QuarryRuntimeStore store, int slot, int y) {
+        final int baseX = store.originX[slot];
+        final int baseZ = store.originZ[slot];
+        final int endX = baseX + store.xSize[slot];
+        final int endZ = baseZ + store.zSize[slot];
+        final int ly = y & 15;
+        final LevelChunk[] chunks = store.chunks[slot];
+        final int spanZ = store.chunkSpanZ[slot];
+
+        SuppressionBypass.enter();
+        try {
+            for (int ci = 0; ci < chunks.length; ci++) {
+                LevelChunk chunk = chunks[ci];
+                if (chunk == null) continue;
+                int chunkX = (store.minChunkX[slot] + ci / spanZ) << 4;
+                int chunkZ = (store.minChunkZ[slot] + ci % spanZ) << 4;
+                int x0 = Math.max(baseX, chunkX) - chunkX;
+                int x1 = Math.min(endX, chunkX + 16) - chunkX;
+                int z0 = Math.max(baseZ, chunkZ) - chunkZ;
+                int z1 = Math.min(endZ, chunkZ + 16) - chunkZ;
+
+                LevelChunkSection section = sectionOf(chunk, y);
+                ChunkSkyLightSources skySources = chunk.getSkyLightSources();
+                for (int h = 0; h < heightmaps.length; h++) {
+                    heightmaps[h] = chunk.getOrCreateHeightmapUnprimed(SETTLED_HEIGHTMAPS[h]);
+                }
+
+                for (int lz = z0; lz < z1; lz++) {
+                    for (int lx = x0; lx < x1; lx++) {
+                        BlockState state = section == null ? AIR : section.getBlockState(lx, ly, lz);
+                        for (Heightmap heightmap : heightmaps) {
+                            heightmap.update(lx, y, lz, state);
+                        }
+                        skySources.update(chunk, lx, y, lz);
+                    }
+                }
+            }
+        } finally {
+            SuppressionBypass.exit();
+            Arrays.fill(heightmaps, null);
+        }
+    }
+
+    /* ───────── palette inspection ───────── */
+
+    /** True if every section the footprint touches at {@code y} holds nothing worth excavating. */
+    private static boolean isLayerSkippable(QuarryRuntimeStore store, int slot, int y) {
+        int cx0 = store.minChunkX[slot];
+        int cz0 = store.minChunkZ[slot];
+        int spanZ = store.chunkSpanZ[slot];
+        int spanX = store.chunks[slot].length / spanZ;
+        for (int cx = cx0; cx < cx0 + spanX; cx++) {
+            for (int cz = cz0; cz < cz0 + spanZ; cz++) {
+                LevelChunkSection section = sectionOf(chunkAt(store, slot, cx, cz), y);
+                if (!isSkippable(store, slot, chunkIndex(store, slot, cx, cz), section)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Palette-level test: a section is skippable when no palette entry can be excavated.
+     * {@code maybeHas} only walks the palette, so this is O(palette size), not O(4096).
+     *
+     * <p>The verdict is kept per footprint chunk ({@link QuarryRuntimeStore#checkedSections})
+     * and the palette is walked again only when the chunk's section at {@code y} is a
+     * different object, i.e. once per section the sweep enters rather than once per row
+     * run. A "not skippable" verdict holds for the life of the section: the engine's own
+     * writes only remove blocks, and palettes do not shrink. A "skippable" one holds while
+     * the section's {@link SectionModCount modification count} is unchanged, since any
+     * outside write may bring in something to excavate.</p>
+     */
+    private static boolean isSkippable(QuarryRuntimeStore store, int slot, int ci, @Nullable LevelChunkSection section) {
+        if (section == null) return true;
+        LevelChunkSection[] checked = store.checkedSections[slot];
+        int[] modCounts = store.skippableModCount[slot];
+        if (checked[ci] == section) {
+            int expected = modCounts[ci];
+            if (expected == QuarryRuntimeStore.NOT_SKIPPABLE) return false;
+            if (expected == SectionModCount.of(section)) return true;
+        }
+        boolean skippable = section.hasOnlyAir()
+                || !section.getStates().maybeHas(ExcavationEngine::isExcavatable);
+        checked[ci] = section;
+        modCounts[ci] = skippable ? SectionModCount.of(section) : QuarryRuntimeStore.NOT_SKIPPABLE;
+        return skippable;
+    }
+
+    @Nullable
+    private static LevelChunkSection sectionOf(LevelChunk chunk, int y) {
+        int index = chunk.getSectionIndex(y);
+        if (index < 0 || index >= chunk.getSectionsCount()) return null;
+        return chunk.getSection(index);
+    }
+
+    private static boolean isExcavatable(BlockState state) {
+        return (BlockIndexer.flags(state) & BlockIndexer.F_NOT_EXCAVATABLE) == 0;
+    }
+
+    /* ───────── harvesting ───────── */
+
+    /**
+     * Bulk path for suppressed interiors: reads and clears the run straight through the
+     * section and tallies mined blocks instead of inserting them one by one. Each
+     * state is classified with one lookup in the {@link BlockIndexer} state table.
+     * {@link #LEVEL_WRITE_FLAGS} states still go through {@link #harvest}.
+     *
+     * @return number of positions written in the section
+     */
+    private int bulkHarvest(ServerLevel level, LevelChunk chunk, LevelChunkSection section,
+                             int fromX, int toX, int y, int z,
+                             ItemBuffer items, OverflowItemBuffer overflow, int currentTick,
+                             BlockPos.MutableBlockPos cursor) {
+        final int ly = y & 15;
+        final int lz = z & 15;
+        final SectionUpdateBatcher.SectionChanges changes = clientChangesFor(chunk, section, fromX, y, z);
+        int writes = 0;
+
+        for (int x = fromX; x < toX; x++) {
+            int lx = x & 15;
+            BlockState state = section.getBlockState(lx, ly, lz);
+            int stateIndex = BlockIndexer.stateIndex(state);
+            int flags = BlockIndexer.flagsAt(stateIndex);
+            if ((flags & BlockIndexer.F_NOT_EXCAVATABLE) != 0) continue;
+
+            cursor.set(x, y, z);
+            writes++;
+            if (state.getLightEmission() > 0) minedEmitters.add(cursor.asLong());
+            if ((flags & LEVEL_WRITE_FLAGS) != 0) {
+                harvest(level, cursor, state, items, overflow, currentTick); // one section write, no neighbours when suppressed
+                continue;
+            }
+
+            section.setBlockState(lx, ly, lz, AIR, false);
+            if (changes != null) changes.mark(lx, ly, lz);
+            else level.getChunkSource().blockChanged(cursor);
+
+            int id = BlockIndexer.itemIdAt(stateIndex);
+            if (id != BlockIndexer.NO_ITEM) {
+                idTally.addTo(id, 1);
+            }
+        }
+
+        if (writes > 0) {
+            chunk.setUnsaved(true);
+        }
+        return writes;
+    }
+
+    /**
+     * Plan-driven variant of {@link #bulkHarvest}: visits only the planned targets of
+     * footprint row {@code dz} between {@code fromDx} and {@code toDx}, using the
+     * planned states and item ids. Only called while the plan still applies to
+     * {@code section}.
+     *
+     * @return number of positions written in the section
+     */
+    private int plannedHarvest(ServerLevel level, LevelChunk chunk, LevelChunkSection section,
+                               LayerLookahead.LayerPlan plan, int baseX, int xSize,
+                               int fromDx, int toDx, int dz, int y, int z,
+                               ItemBuffer items, OverflowItemBuffer overflow, int currentTick,
+                               BlockPos.MutableBlockPos cursor) {
+        final int ly = y & 15;
+        final int lz = z & 15;
+        final int row = dz * xSize;
+        final int end = row + toDx;
+        final SectionUpdateBatcher.SectionChanges changes = clientChangesFor(chunk, section, baseX + fromDx, y, z);
+        int writes = 0;
+
+        for (int i = plan.targets.nextSetBit(row + fromDx); i >= 0 && i < end; i = plan.targets.nextSetBit(i + 1)) {
+            BlockState state = plan.states[i];
+            int x = baseX + (i - row);
+
+            cursor.set(x, y, z);
+            writes++;
+            if (state.getLightEmission() > 0) minedEmitters.add(cursor.asLong());
+            if ((BlockIndexer.flags(state) & LEVEL_WRITE_FLAGS) != 0) {
+                harvest(level, cursor, state, items, overflow, currentTick);
+                continue;
+            }
+
+            section.setBlockState(x & 15, ly, lz, AIR, false);
+            if (changes != null) changes.mark(x & 15, ly, lz);
+            else level.getChunkSource().blockChanged(cursor);
+
+            int id = plan.ids[i];
+            if (id != BlockIndexer.NO_ITEM) {
+                idTally.addTo(id, 1);
+            }
+        }
+
+        if (writes > 0) {
+            chunk.setUnsaved(true);
+        }
+        return writes;
+    }
+
+    /** Pushes the batch tally into the buffers as one counted insert per item id. */
+    private void flushTally(ItemBuffer items, OverflowItemBuffer overflow, int currentTick) {
+        if (idTally.isEmpty()) return;
+        for (Int2IntMap.Entry entry : idTally.int2IntEntrySet()) {
+            int id = entry.getIntKey();
+            if ((id & BlockIndexer.OVERFLOW_ID) != 0) {
+                overflow.add(id & ~BlockIndexer.OVERFLOW_ID, entry.getIntValue(), currentTick);
+            } else {
+                items.add((short) id, entry.getIntValue(), currentTick);
+            }
+        }
+        idTally.clear();
+    }
+
+    /**
+     * Breaks a single excavatable position through the level and routes its item into
+     * the quarry buffers. {@code state} is the state already read from the section.
+     * {@link #LOOT_FLAGS} states yield their loot-table drops ({@link DropResolver}),
+     * resolved before the block entity is torn down; liquids yield nothing.
+     */
+    private void harvest(ServerLevel level, BlockPos.MutableBlockPos pos, BlockState state,
+                         ItemBuffer items, OverflowItemBuffer overflow, int currentTick) {
+        int stateIndex = BlockIndexer.stateIndex(state);
+        int flags = BlockIndexer.flagsAt(stateIndex);
+        boolean liquid = (flags & BlockIndexer.F_FLUID) != 0;
+        boolean isComplexBlock = (flags & LOOT_FLAGS) != 0;
+
+        if (isComplexBlock && !liquid) {
+            drops.resolve(level, pos, state, level.getBlockEntity(pos), items, overflow, currentTick);
+        }
+
+        level.setBlock(pos, AIR, Block.UPDATE_CLIENTS, 0);
+
+        if (isComplexBlock || liquid) {
+            return;
+        }
+
+        int id = BlockIndexer.itemIdAt(stateIndex);
+        if (id == BlockIndexer.NO_ITEM) return;
+        if ((id & BlockIndexer.OVERFLOW_ID) != 0) {
+            overflow.add(id & ~BlockIndexer.OVERFLOW_ID, currentTick);
+        } else {
+            items.add((short) id, currentTick);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.nicholasblue.quarrymod.manager;
+
+import com.nicholasblue.quarrymod.QuarryMod;
+import com.nicholasblue.quarrymod.data.BlockIndexer;
+import com.nicholasblue.quarrymod.util.SectionModCount;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Off-thread planning of the next layer of each quarry.
+ *
+ * <p>While a quarry works on layer {@code y}, the server thread copies the
+ * {@link PalettedContainer}s of the footprint sections at {@code y - 1} (a flat array
+ * copy) and hands them to a background thread. That thread walks the copy and records,
+ * per footprint position, whether it is a target (excavatable per the
+ * {@link BlockIndexer} state table), its state and its buffer id. When the quarry descends, the finished
+ * {@link LayerPlan} becomes its active plan and the bulk harvest path walks the target
+ * set instead of reading and classifying every position itself.</p>
+ *
+ * <p>Each slot holds at most two plans (the active one and the next one), so plans are
+ * double-buffered between the worker and the tick loop. A plan stays valid for a
+ * footprint chunk only while that chunk's live section is the same object and its
+ * {@link SectionModCount modification counter} matches the value at capture plus the
+ * writes the engine itself made since ({@link #noteWrites}). Anything else changing the
+ * section invalidates the plan for that chunk, and the engine falls back to live reads.</p>
+ */
+final class LayerLookahead {
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "quarrymod-layer-lookahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * One quarry layer's targets. {@code y}, {@link #sections} and {@link #expectedModCount}
+     * are owned by the server thread; the target columns are written by the worker
+     * before it publishes {@link #ready}.
+     */
+    static final class LayerPlan {
+        final int y;
+        /** Live section per footprint chunk index at capture time (null if none). */
+        final LevelChunkSection[] sections;
+        /** Modification count each section must still have for the plan to apply. */
+        final int[] expectedModCount;
+        /** Section copies for the worker; cleared once planned. */
+        private final PalettedContainer<BlockState>[] copies;
+
+        /** Footprint indices ({@code dx + dz * xSize}) holding something to excavate. */
+        final BitSet targets;
+        final BlockState[] states;
+        /** Buffer id per target, as {@link BlockIndexer#itemIdAt}. */
+        final int[] ids;
+
+        volatile boolean ready;
+
+        @SuppressWarnings("unchecked")
+        private LayerPlan(int y, int chunkCount, int positions) {
+            this.y = y;
+            this.sections = new LevelChunkSection[chunkCount];
+            this.expectedModCount = new int[chunkCount];
+            this.copies = new PalettedContainer[chunkCount];
+            this.targets = new BitSet(positions);
+            this.states = new BlockState[positions];
+            this.ids = new int[positions];
+        }
+
+        /** True if the plan is finished and still describes {@code section}, footprint chunk {@code ci}. */
+        boolean appliesTo(int ci, LevelChunkSection section) {
+            return ready
+                    && sections[ci] == section
+                    && SectionModCount.of(section) == expectedModCount[ci];
+        }
+    }
+
+    /* ───────── server thread ───────── */
+
+    /**
+     * Makes sure {@code slot} has a next-layer plan for {@code y - 1} in flight,
+     * capturing one if needed. Chunks must already be acquired for this tick.
+     */
+    void ensureNext(QuarryRuntimeStore store, int slot, int y, int minY) {
+        int nextY = y - 1;
+        LayerPlan next = store.nextPlan[slot];
+        if (nextY < minY || (next != null && next.y == nextY)) return;
+        store.nextPlan[slot] = capture(store, slot, nextY);
+    }
+
+    /** Promotes the next plan on descent to {@code y}; the old active plan is dropped. */
+    void onLayerEntered(QuarryRuntimeStore store, int slot, int y) {
+        LayerPlan next = store.nextPlan[slot];
+        store.activePlan[slot] = next != null && next.y == y ? next : null;
+        store.nextPlan[slot] = null;
+    }
+
+    /** Records {@code count} writes the engine itself made to {@code section}, so plans covering it stay valid. */
+    static void noteWrites(QuarryRuntimeStore store, int slot, int ci, LevelChunkSection section, int count) {
+        LayerPlan active = store.activePlan[slot];
+        if (active != null && active.sections[ci] == section) active.expectedModCount[ci] += count;
+        LayerPlan next = store.nextPlan[slot];
+        if (next != null && next.sections[ci] == section) next.expectedModCount[ci] += count;
+    }
+
+    @Nullable
+    private LayerPlan capture(QuarryRuntimeStore store, int slot, int y) {
+        LevelChunk[] chunks = store.chunks[slot];
+        LayerPlan plan = new LayerPlan(y, chunks.length, store.xSize[slot] * store.zSize[slot]);
+        for (int ci = 0; ci < chunks.length; ci++) {
+            LevelChunk chunk = chunks[ci];
+            if (chunk == null) return null;
+            int index = chunk.getSectionIndex(y);
+            if (index < 0 || index >= chunk.getSectionsCount()) continue;
+            LevelChunkSection section = chunk.getSection(index);
+            plan.sections[ci] = section;
+            plan.expectedModCount[ci] = SectionModCount.of(section);
+            if (!section.hasOnlyAir()) {
+                plan.copies[ci] = section.getStates().copy();
+            }
+        }
+
+        int baseX = store.originX[slot];
+        int baseZ = store.originZ[slot];
+        int xSize = store.xSize[slot];
+        int zSize = store.zSize[slot];
+        int minChunkX = store.minChunkX[slot];
+        int minChunkZ = store.minChunkZ[slot];
+        int spanZ = store.chunkSpanZ[slot];
+        try {
+            worker.execute(() -> plan(plan, baseX, baseZ, xSize, zSize, minChunkX, minChunkZ, spanZ));
+        } catch (RejectedExecutionException e) {
+            QuarryMod.LOGGER.warn("[CQM] Layer lookahead rejected: {}", e.getMessage());
+            return null;
+        }
+        return plan;
+    }
+
+    /* ───────── worker thread ───────── */
+
+    private static void plan(LayerPlan plan, int baseX, int baseZ, int xSize, int zSize,
+                             int minChunkX, int minChunkZ, int spanZ) {
+        final int ly = plan.y & 15;
+        for (int dz = 0; dz < zSize; dz++) {
+            int z = baseZ + dz;
+            for (int dx = 0; dx < xSize; dx++) {
+                int x = baseX + dx;
+                PalettedContainer<BlockState> copy =
+                        plan.copies[((x >> 4) - minChunkX) * spanZ + ((z >> 4) - minChunkZ)];
+                if (copy == null) continue;
+
+                BlockState state = copy.get(x & 15, ly, z & 15);
+                int stateIndex = BlockIndexer.stateIndex(state);
+                if ((BlockIndexer.flagsAt(stateIndex) & BlockIndexer.F_NOT_EXCAVATABLE) != 0) continue;
+
+                int i = dx + dz * xSize;
+                plan.targets.set(i);
+                plan.states[i] = state;
+                plan.ids[i] = BlockIndexer.itemIdAt(stateIndex);
+            }
+        }
+        Arrays.fill(plan.copies, null);
+        plan.ready = true;
+    }
+}
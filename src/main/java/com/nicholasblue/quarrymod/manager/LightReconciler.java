@@ -0,0 +1,138 @@
+package com.nicholasblue.quarrymod.manager;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ThreadedLevelLightEngine;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+
+/**
+ * Deferred, chunk-granular light reconciliation for excavated volumes.
+ *
+ * <p>Bulk harvests write straight into the section and the suppression mixins cancel
+ * light checks inside the quarry shell, so the hole is never relit block by block.
+ * Instead, whenever a quarry finishes one or more layers its footprint chunks are
+ * queued here (coalesced, so a chunk is queued at most once however many layers or
+ * quarries touch it), and a few queued chunks per tick are relit as a whole: the
+ * light engine re-propagates every sky and block light source of the chunk
+ * ({@link ThreadedLevelLightEngine#lightChunk} with {@code isLighted = false}, which
+ * runs {@code propagateLightSources}). That propagation only raises light and never
+ * goes through {@code checkNode}, so it also reaches suppressed positions. Sky-light sources are already current by then;
+ * the engine settles them per finished layer.</p>
+ *
+ * <p>Lowering light is the one thing propagation cannot do, and it only matters where
+ * a light-emitting block was mined. Bulk harvests record those positions per quarry
+ * ({@link QuarryRuntimeStore#minedEmitters}); they are checked individually once the
+ * quarry finishes or is removed, after its shell has been lifted so the checks are
+ * not cancelled. They cannot be flushed per layer: the shell covers every layer mined
+ * so far until then. The record is capped at {@link #MAX_TRACKED_EMITTERS} positions per
+ * quarry; emitters past the cap only mark their section, and such sections are
+ * rechecked block by block ({@link #MAX_SECTIONS_PER_TICK} per tick). Both lists are
+ * saved with the quarry's runtime state, so a restart mid-quarry loses no checks.</p>
+ *
+ * <p>Queued chunks that are unloaded by the time they come up are dropped. Server
+ * thread only; the relighting itself runs on the light engine's thread.</p>
+ */
+final class LightReconciler {
+
+    /** Chunks relit per server tick. Each one is a full-chunk propagation on the light thread. */
+    static final int MAX_CHUNKS_PER_TICK = 4;
+    /** Emitter positions remembered per quarry before falling back to whole-section checks. */
+    static final int MAX_TRACKED_EMITTERS = 4096;
+    /** Sections rechecked per server tick; each is 4096 {@code checkBlock} calls. */
+    static final int MAX_SECTIONS_PER_TICK = 1;
+
+    private final LongLinkedOpenHashSet pendingChunks = new LongLinkedOpenHashSet();
+    private final LongArrayList pendingEmitters = new LongArrayList();
+    private final LongLinkedOpenHashSet pendingSections = new LongLinkedOpenHashSet();
+    private final BlockPos.MutableBlockPos cursor = new BlockPos.MutableBlockPos();
+
+    /** Queues the footprint chunks of {@code slot} after it finished at least one layer. */
+    void layersFinished(QuarryRuntimeStore store, int slot) {
+        int spanZ = store.chunkSpanZ[slot];
+        int chunkCount = store.chunks[slot].length;
+        for (int i = 0; i < chunkCount; i++) {
+            pendingChunks.add(ChunkPos.asLong(store.minChunkX[slot] + i / spanZ, store.minChunkZ[slot] + i % spanZ));
+        }
+    }
+
+    /**
+     * Records the light emitters a batch of {@code slot} mined. Past
+     * {@link #MAX_TRACKED_EMITTERS} only the section of each one is kept.
+     */
+    void emittersMined(QuarryRuntimeStore store, int slot, LongArrayList mined) {
+        LongArrayList emitters = store.minedEmitters[slot];
+        if (emitters == null) emitters = store.minedEmitters[slot] = new LongArrayList();
+        for (int i = 0; i < mined.size(); i++) {
+            long pos = mined.getLong(i);
+            if (emitters.size() < MAX_TRACKED_EMITTERS) {
+                emitters.add(pos);
+                continue;
+            }
+            LongOpenHashSet sections = store.emitterSections[slot];
+            if (sections == null) sections = store.emitterSections[slot] = new LongOpenHashSet();
+            sections.add(SectionPos.asLong(BlockPos.getX(pos) >> 4, BlockPos.getY(pos) >> 4, BlockPos.getZ(pos) >> 4));
+        }
+    }
+
+    /**
+     * Queues the final relight of a quarry that reached the bottom or is being removed,
+     * including the light-emitter checks it accumulated. The caller lifts its shell.
+     */
+    void quarryFinished(QuarryRuntimeStore store, int slot) {
+        layersFinished(store, slot);
+        LongArrayList emitters = store.minedEmitters[slot];
+        if (emitters != null) {
+            pendingEmitters.addAll(emitters);
+            store.minedEmitters[slot] = null;
+        }
+        LongOpenHashSet sections = store.emitterSections[slot];
+        if (sections != null) {
+            pendingSections.addAll(sections);
+            store.emitterSections[slot] = null;
+        }
+    }
+
+    /**
+     * Relights up to {@link #MAX_CHUNKS_PER_TICK} queued chunks, then runs the queued
+     * emitter checks and up to {@link #MAX_SECTIONS_PER_TICK} section checks. Called once
+     * per server tick.
+     */
+    void tick(ServerLevel level) {
+        if (pendingChunks.isEmpty() && pendingEmitters.isEmpty() && pendingSections.isEmpty()) return;
+        ThreadedLevelLightEngine light = level.getChunkSource().getLightEngine();
+
+        for (int n = 0; n < MAX_CHUNKS_PER_TICK && !pendingChunks.isEmpty(); n++) {
+            long chunkKey = pendingChunks.removeFirstLong();
+            LevelChunk chunk = level.getChunkSource().getChunkNow(ChunkPos.getX(chunkKey), ChunkPos.getZ(chunkKey));
+            if (chunk == null) continue;
+            light.lightChunk(chunk, false); // false: re-propagate sources; true would only re-enable light
+        }
+
+        if (!pendingEmitters.isEmpty()) {
+            for (int i = 0; i < pendingEmitters.size(); i++) {
+                light.checkBlock(cursor.set(pendingEmitters.getLong(i)));
+            }
+            pendingEmitters.clear();
+        }
+
+        for (int n = 0; n < MAX_SECTIONS_PER_TICK && !pendingSections.isEmpty(); n++) {
+            long sectionKey = pendingSections.removeFirstLong();
+            int x0 = SectionPos.sectionToBlockCoord(SectionPos.x(sectionKey));
+            int y0 = SectionPos.sectionToBlockCoord(SectionPos.y(sectionKey));
+            int z0 = SectionPos.sectionToBlockCoord(SectionPos.z(sectionKey));
+            if (level.getChunkSource().getChunkNow(x0 >> 4, z0 >> 4) == null) continue;
+            for (int dy = 0; dy < 16; dy++) {
+                for (int dz = 0; dz < 16; dz++) {
+                    for (int dx = 0; dx < 16; dx++) {
+                        light.checkBlock(cursor.set(x0 + dx, y0 + dy, z0 + dz));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.nicholasblue.quarrymod.manager;
 import com.nicholasblue.quarrymod.data.QuarryBlockData;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -17,13 +18,36 @@ import java.util.concurrent.atomic.AtomicReference;
  * cloned and mutated, then atomically swapped back into {@code stateRef}. This avoids
  * concurrency hazards and supports consistent view semantics under contention.</p>
  *
+ * <p>Each published version is a {@link View}: the map plus a sorted {@code long[]}
+ * of its keys. The key array is maintained incrementally (binary search + one
+ * array copy per add/remove) so tick loops can iterate keys in deterministic order
+ * without allocating or sorting every tick.</p>
+ *
  * <p>This class is agnostic of tick or suppression behavior. It only enforces registry
  * consistency and delta-safety.</p>
  */
 public final class QuarryRegistry {
 
-    private final AtomicReference<Long2ObjectOpenHashMap<QuarryBlockData>> stateRef =
-            new AtomicReference<>(new Long2ObjectOpenHashMap<>());
+    private static final long[] NO_KEYS = new long[0];
+
+    /**
+     * One immutable registry version. Neither the map nor the key array may be
+     * mutated by readers; they are shared by every holder of this view.
+     */
+    public static final class View {
+        public final Long2ObjectOpenHashMap<QuarryBlockData> configs;
+        /** Keys of {@link #configs} in ascending order. Read-only. */
+        public final long[] sortedKeys;
+
+        View(Long2ObjectOpenHashMap<QuarryBlockData> configs, long[] sortedKeys) {
+            this.configs = configs;
+            this.sortedKeys = sortedKeys;
+        }
+    }
+
+    private static final View EMPTY = new View(new Long2ObjectOpenHashMap<>(), NO_KEYS);
+
+    private final AtomicReference<View> stateRef = new AtomicReference<>(EMPTY);
 
     public QuarryRegistry() {}
 
@@ -34,11 +58,12 @@ public final class QuarryRegistry {
     public boolean register(QuarryBlockData data) {
         long key = data.quarryPos.asLong();
         while (true) {
-            Long2ObjectOpenHashMap<QuarryBlockData> oldMap = stateRef.get();
-            if (oldMap.containsKey(key)) return false;
-            Long2ObjectOpenHashMap<QuarryBlockData> newMap = new Long2ObjectOpenHashMap<>(oldMap);
+            View old = stateRef.get();
+            if (old.configs.containsKey(key)) return false;
+            Long2ObjectOpenHashMap<QuarryBlockData> newMap = new Long2ObjectOpenHashMap<>(old.configs);
             newMap.put(key, data);
-            if (stateRef.compareAndSet(oldMap, newMap)) return true;
+            View next = new View(newMap, insertSorted(old.sortedKeys, key));
+            if (stateRef.compareAndSet(old, next)) return true;
         }
     }
 
@@ -48,12 +73,13 @@ public final class QuarryRegistry {
      */
     public QuarryBlockData unregister(long key) {
         while (true) {
-            Long2ObjectOpenHashMap<QuarryBlockData> oldMap = stateRef.get();
-            QuarryBlockData existing = oldMap.get(key);
+            View old = stateRef.get();
+            QuarryBlockData existing = old.configs.get(key);
             if (existing == null) return null;
-            Long2ObjectOpenHashMap<QuarryBlockData> newMap = new Long2ObjectOpenHashMap<>(oldMap);
+            Long2ObjectOpenHashMap<QuarryBlockData> newMap = new Long2ObjectOpenHashMap<>(old.configs);
             newMap.remove(key);
-            if (stateRef.compareAndSet(oldMap, newMap)) return existing;
+            View next = new View(newMap, removeSorted(old.sortedKeys, key));
+            if (stateRef.compareAndSet(old, next)) return existing;
         }
     }
 
@@ -62,6 +88,14 @@ public final class QuarryRegistry {
      * The returned map is safe for iteration and inspection but must not be mutated.
      */
     public Long2ObjectOpenHashMap<QuarryBlockData> snapshot() {
+        return stateRef.get().configs;
+    }
+
+    /**
+     * Returns the current version: the config map together with its sorted keys.
+     * Both are consistent with each other and must not be mutated.
+     */
+    public View view() {
         return stateRef.get();
     }
 
@@ -70,7 +104,9 @@ public final class QuarryRegistry {
      * Assumes full ownership of the passed map; it is not copied.
      */
     public void restore(Long2ObjectOpenHashMap<QuarryBlockData> restored) {
-        stateRef.set(restored);
+        long[] keys = restored.keySet().toLongArray();
+        Arrays.sort(keys);
+        stateRef.set(new View(restored, keys));
     }
 
     /**
@@ -78,14 +114,35 @@ public final class QuarryRegistry {
      */
     public void clear() {
         while (true) {
-            Long2ObjectOpenHashMap<QuarryBlockData> oldMap = stateRef.get();
-            if (oldMap.isEmpty()) {
+            View old = stateRef.get();
+            if (old.configs.isEmpty()) {
                 return; // Already empty, nothing to do
             }
-            if (stateRef.compareAndSet(oldMap, new Long2ObjectOpenHashMap<>())) {
+            if (stateRef.compareAndSet(old, EMPTY)) {
                 return; // Successfully cleared
             }
             // If CAS failed, another thread modified it, so loop and retry
         }
     }
-}
\ No newline at end of file
+
+    /* ───────── sorted key maintenance ───────── */
+
+    private static long[] insertSorted(long[] keys, long key) {
+        int at = -(Arrays.binarySearch(keys, key) + 1);
+        long[] out = new long[keys.length + 1];
+        System.arraycopy(keys, 0, out, 0, at);
+        out[at] = key;
+        System.arraycopy(keys, at, out, at + 1, keys.length - at);
+        return out;
+    }
+
+    private static long[] removeSorted(long[] keys, long key) {
+        int at = Arrays.binarySearch(keys, key);
+        if (at < 0) return keys;
+        if (keys.length == 1) return NO_KEYS;
+        long[] out = new long[keys.length - 1];
+        System.arraycopy(keys, 0, out, 0, at);
+        System.arraycopy(keys, at + 1, out, at, keys.length - at - 1);
+        return out;
+    }
+}
@@ -0,0 +1,475 @@
+package com.nicholasblue.quarrymod.manager;
+
+import com.nicholasblue.quarrymod.data.QuarryBlockData;
+import com.nicholasblue.quarrymod.data.QuarryRuntimeState;
+import com.nicholasblue.quarrymod.item.ItemBuffer;
+import com.nicholasblue.quarrymod.item.OverflowItemBuffer;
+import com.nicholasblue.quarrymod.item.PayoutSink;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar (struct-of-arrays) store for the runtime state of every registered quarry.
+ *
+ * <p>Each quarry owns a stable slot id for as long as it is registered. Hot fields
+ * (cursor, progress, running flag) and the configuration the tick loop needs
+ * (origin, footprint) live in dense primitive columns indexed by slot, so the tick
+ * loop is a linear walk over arrays instead of a hash lookup and pointer chase per
+ * quarry. Cold, object-valued data (config record, item buffers) sits in parallel
+ * reference columns that are only touched on slow paths.</p>
+ *
+ * <p>Each slot also caches the {@link LevelChunk} handles its footprint covers
+ * (most footprints touch one to four chunks), so block reads and writes go through
+ * the chunk directly instead of resolving it through the chunk cache per access.
+ * Handles are dropped when the chunk unloads ({@link #invalidateChunk}). A slot
+ * whose footprint is not fully loaded is <em>parked</em>: it is skipped by the tick
+ * loop until a chunk of its footprint loads again ({@link #wakeChunk}), so the tick
+ * loop never has to pull a chunk in itself. A chunk that stays loaded but drops below
+ * full status fires no new load event when it recovers, so parked slots are also
+ * re-checked at a low rate ({@link #retryParked}).</p>
+ *
+ * <p>The tick loop does not walk the registry. Awake slots (running, not parked)
+ * sit in a {@link QuarryTimingWheel} at the tick they are next due, and each tick
+ * only the due ones are handed out ({@link #collectDue}). Sleeping slots (finished,
+ * stopped, parked) are not scheduled at all, so they cost nothing per tick; waking
+ * one schedules it for the next tick.</p>
+ *
+ * <p>{@link QuarryRuntimeState} remains the interchange/persistence form: the store
+ * imports it on registration or load and exports detached copies for saving and UI.
+ * Exported copies share the live item buffers but not the primitive fields.</p>
+ *
+ * <p>Columns are package-visible for {@link ExcavationEngine}. Server thread only.</p>
+ */
+public final class QuarryRuntimeStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Long2IntOpenHashMap slotByKey = new Long2IntOpenHashMap();
+
+    /* ───────── hot columns ───────── */
+    long[] key;
+    int[] currentY;
+    int[] progress;
+    int[] miningProgress;
+    int[] lastServicedTick;
+    final BitSet running = new BitSet();
+    /** Slots waiting for an unloaded footprint chunk; see {@link #wakeChunk}. */
+    final BitSet parked = new BitSet();
+
+    /* ───────── config columns (copied from QuarryBlockData at import) ───────── */
+    int[] originX;
+    int[] originZ;
+    int[] xSize;
+    int[] zSize;
+    int[] upgrade1Units;
+    int[] upgrade2Units;
+
+    /* ───────── footprint chunk cache ───────── */
+    int[] minChunkX;
+    int[] minChunkZ;
+    int[] chunkSpanZ;
+    /** Per slot: footprint chunks, index {@code (cx - minChunkX) * chunkSpanZ + (cz - minChunkZ)}; null = not cached. */
+    LevelChunk[][] chunks;
+    /**
+     * Per slot, same index as {@link #chunks}: the section the engine last palette-checked
+     * in that chunk (see {@code ExcavationEngine#isSkippable}); null = none yet.
+     */
+    LevelChunkSection[][] checkedSections;
+    /**
+     * Per slot, same index: the checked section's modification count if it was
+     * skippable, or {@link #NOT_SKIPPABLE}.
+     */
+    int[][] skippableModCount;
+    static final int NOT_SKIPPABLE = -1;
+    private final Long2ObjectOpenHashMap<IntArrayList> slotsByChunk = new Long2ObjectOpenHashMap<>();
+
+    /* ───────── layer plans (see LayerLookahead) ───────── */
+    LayerLookahead.LayerPlan[] activePlan;
+    LayerLookahead.LayerPlan[] nextPlan;
+
+    /* ───────── lighting (see LightReconciler) ───────── */
+    /**
+     * Per slot: packed positions of light-emitting blocks removed by bulk harvests, at
+     * most {@link LightReconciler#MAX_TRACKED_EMITTERS}; null until the first.
+     */
+    LongArrayList[] minedEmitters;
+    /** Per slot: sections whose emitters no longer fit {@link #minedEmitters}, rechecked whole; null until the first. */
+    LongOpenHashSet[] emitterSections;
+
+    /* ───────── cold reference columns ───────── */
+    QuarryBlockData[] config;
+    ItemBuffer[] itemBuffers;
+    OverflowItemBuffer[] overflowBuffers;
+
+    /* ───────── slot bookkeeping ───────── */
+    private final BitSet occupied = new BitSet();
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private int highWater = 0;
+    private int size = 0;
+
+    /* ───────── scheduling ───────── */
+    private final QuarryTimingWheel wheel = new QuarryTimingWheel(INITIAL_CAPACITY);
+
+    /** Orders slots by the chunk holding their origin, then by key. */
+    private final IntComparator byChunk = (a, b) -> {
+        int c = Integer.compare(originX[a] >> 4, originX[b] >> 4);
+        if (c == 0) c = Integer.compare(originZ[a] >> 4, originZ[b] >> 4);
+        return c != 0 ? c : Long.compare(key[a], key[b]);
+    };
+
+    public QuarryRuntimeStore() {
+        slotByKey.defaultReturnValue(-1);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /* ───────── membership ───────── */
+
+    /** Imports a quarry's state into a fresh slot, replacing any slot already held by its key. */
+    public int add(QuarryBlockData data, QuarryRuntimeState state) {
+        long k = data.quarryPos.asLong();
+        remove(k);
+
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : highWater++;
+        if (slot >= key.length) {
+            allocate(key.length * 2);
+        }
+
+        key[slot]              = k;
+        currentY[slot]         = state.getCurrentY();
+        progress[slot]         = state.getProgressCounter();
+        miningProgress[slot]   = state.getMiningProgress();
+        lastServicedTick[slot] = state.getLastServicedTick();
+        running.set(slot, state.isRunning());
+
+        originX[slot] = data.origin.getX();
+        originZ[slot] = data.origin.getZ();
+        xSize[slot]   = data.xSize;
+        zSize[slot]   = data.zSize;
+        upgrade1Units[slot] = state.getUpgrade1Units();
+        upgrade2Units[slot] = state.getUpgrade2Units();
+        long[] emitters = state.getMinedEmitters();
+        minedEmitters[slot] = emitters.length == 0 ? null : new LongArrayList(emitters);
+        long[] sections = state.getEmitterSections();
+        emitterSections[slot] = sections.length == 0 ? null : new LongOpenHashSet(sections);
+
+        config[slot]          = data;
+        itemBuffers[slot]     = state.getItemBuffer();
+        overflowBuffers[slot] = state.getOverflowBuffer();
+
+        int cx0 = data.origin.getX() >> 4;
+        int cz0 = data.origin.getZ() >> 4;
+        int cx1 = (data.origin.getX() + data.xSize - 1) >> 4;
+        int cz1 = (data.origin.getZ() + data.zSize - 1) >> 4;
+        minChunkX[slot]  = cx0;
+        minChunkZ[slot]  = cz0;
+        chunkSpanZ[slot] = cz1 - cz0 + 1;
+        chunks[slot] = new LevelChunk[(cx1 - cx0 + 1) * (cz1 - cz0 + 1)];
+        checkedSections[slot] = new LevelChunkSection[chunks[slot].length];
+        skippableModCount[slot] = new int[chunks[slot].length];
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cz = cz0; cz <= cz1; cz++) {
+                slotsByChunk.computeIfAbsent(ChunkPos.asLong(cx, cz), k2 -> new IntArrayList(1)).add(slot);
+            }
+        }
+
+        occupied.set(slot);
+        slotByKey.put(k, slot);
+        size++;
+        if (isTickable(slot)) wheel.scheduleNow(slot);
+        return slot;
+    }
+
+    /** Releases the slot held by {@code key}; returns its final state, or {@code null} if absent. */
+    @Nullable
+    public QuarryRuntimeState remove(long k) {
+        int slot = slotByKey.remove(k);
+        if (slot < 0) return null;
+
+        QuarryRuntimeState exported = export(slot);
+
+        LevelChunk[] cached = chunks[slot];
+        int spanZ = chunkSpanZ[slot];
+        for (int i = 0; i < cached.length; i++) {
+            long chunkKey = ChunkPos.asLong(minChunkX[slot] + i / spanZ, minChunkZ[slot] + i % spanZ);
+            IntArrayList slots = slotsByChunk.get(chunkKey);
+            if (slots != null) {
+                slots.rem(slot);
+                if (slots.isEmpty()) slotsByChunk.remove(chunkKey);
+            }
+        }
+        chunks[slot] = null;
+        checkedSections[slot] = null;
+        skippableModCount[slot] = null;
+        activePlan[slot] = null;
+        nextPlan[slot] = null;
+        minedEmitters[slot] = null;
+        emitterSections[slot] = null;
+        wheel.unschedule(slot);
+
+        occupied.clear(slot);
+        running.clear(slot);
+        parked.clear(slot);
+        config[slot] = null;
+        itemBuffers[slot] = null;
+        overflowBuffers[slot] = null;
+
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+        return exported;
+    }
+
+    public void clear() {
+        slotByKey.clear();
+        occupied.clear();
+        running.clear();
+        parked.clear();
+        Arrays.fill(config, null);
+        Arrays.fill(itemBuffers, null);
+        Arrays.fill(overflowBuffers, null);
+        Arrays.fill(chunks, null);
+        Arrays.fill(checkedSections, null);
+        Arrays.fill(skippableModCount, null);
+        Arrays.fill(activePlan, null);
+        Arrays.fill(nextPlan, null);
+        Arrays.fill(minedEmitters, null);
+        Arrays.fill(emitterSections, null);
+        slotsByChunk.clear();
+        freeCount = 0;
+        highWater = 0;
+        size = 0;
+        wheel.clear();
+    }
+
+    public int slotOf(long k) {
+        return slotByKey.get(k);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* ───────── interchange ───────── */
+
+    /** Detached copy of one slot's state. Shares the live item buffers. */
+    public QuarryRuntimeState export(int slot) {
+        QuarryRuntimeState state = new QuarryRuntimeState(
+                currentY[slot], progress[slot], running.get(slot),
+                itemBuffers[slot], overflowBuffers[slot]);
+        state.setMiningProgress(miningProgress[slot]);
+        state.setLastServicedTick(lastServicedTick[slot]);
+        state.setUpgrade1Units(upgrade1Units[slot]);
+        state.setUpgrade2Units(upgrade2Units[slot]);
+        if (minedEmitters[slot] != null) state.setMinedEmitters(minedEmitters[slot].toLongArray());
+        if (emitterSections[slot] != null) state.setEmitterSections(emitterSections[slot].toLongArray());
+        return state;
+    }
+
+    /** Pays out the expired entries of every slot's item buffers to {@code sink}. */
+    void expireBuffers(int currentTick, PayoutSink sink) {
+        for (int slot = occupied.nextSetBit(0); slot >= 0; slot = occupied.nextSetBit(slot + 1)) {
+            itemBuffers[slot].tick(currentTick, sink);
+            overflowBuffers[slot].tick(currentTick, sink);
+        }
+    }
+
+    /** Calls {@code visitor} for every occupied slot, in slot order. */
+    public void forEach(SlotVisitor visitor) {
+        for (int slot = occupied.nextSetBit(0); slot >= 0; slot = occupied.nextSetBit(slot + 1)) {
+            visitor.visit(key[slot], slot);
+        }
+    }
+
+    @FunctionalInterface
+    public interface SlotVisitor {
+        void visit(long key, int slot);
+    }
+
+    /* ───────── chunk cache ───────── */
+
+    /**
+     * Drops every cached handle to the given chunk and parks the slots whose footprint
+     * it belongs to. Called on chunk unload.
+     */
+    public void invalidateChunk(long chunkKey) {
+        IntArrayList slots = slotsByChunk.get(chunkKey);
+        if (slots == null) return;
+        int cx = ChunkPos.getX(chunkKey);
+        int cz = ChunkPos.getZ(chunkKey);
+        for (int i = 0; i < slots.size(); i++) {
+            int slot = slots.getInt(i);
+            int ci = (cx - minChunkX[slot]) * chunkSpanZ[slot] + (cz - minChunkZ[slot]);
+            chunks[slot][ci] = null;
+            checkedSections[slot][ci] = null;
+            park(slot);
+        }
+    }
+
+
+    /**
+     * Caches the freshly loaded chunk for, and unparks, every slot whose footprint
+     * contains it. Called on chunk load. A slot with other footprint chunks still
+     * missing simply parks again on its next batch. Banked credit is not back-filled
+     * for the time spent parked.
+     */
+    public void wakeChunk(LevelChunk chunk) {
+        IntArrayList slots = slotsByChunk.get(chunk.getPos().toLong());
+        if (slots == null) return;
+        int cx = chunk.getPos().x;
+        int cz = chunk.getPos().z;
+        for (int i = 0; i < slots.size(); i++) {
+            int slot = slots.getInt(i);
+            chunks[slot][(cx - minChunkX[slot]) * chunkSpanZ[slot] + (cz - minChunkZ[slot])] = chunk;
+            if (parked.get(slot)) {
+                parked.clear(slot);
+                lastServicedTick[slot] = -1;
+                if (running.get(slot)) wheel.scheduleNow(slot);
+            }
+        }
+    }
+
+    /**
+     * Unparks every running parked slot whose footprint chunks are all available at
+     * full status again, caching their handles. Catches chunks that recovered without a
+     * load event. Cost is proportional to the parked slots.
+     */
+    void retryParked(ServerLevel level) {
+        for (int slot = parked.nextSetBit(0); slot >= 0; slot = parked.nextSetBit(slot + 1)) {
+            if (!running.get(slot) || !footprintAvailable(level, slot)) continue;
+            parked.clear(slot);
+            lastServicedTick[slot] = -1;
+            wheel.scheduleNow(slot);
+        }
+    }
+
+    private boolean footprintAvailable(ServerLevel level, int slot) {
+        LevelChunk[] cached = chunks[slot];
+        int spanZ = chunkSpanZ[slot];
+        for (int i = 0; i < cached.length; i++) {
+            if (cached[i] != null) continue;
+            LevelChunk chunk = level.getChunkSource().getChunkNow(minChunkX[slot] + i / spanZ, minChunkZ[slot] + i % spanZ);
+            if (chunk == null) return false;
+            cached[i] = chunk;
+        }
+        return true;
+    }
+
+    void park(int slot) {
+        if (!parked.get(slot)) {
+            parked.set(slot);
+            wheel.unschedule(slot);
+        }
+    }
+
+    /* ───────── tick-loop support ───────── */
+
+    /**
+     * Collects the slots due at {@code tick} into {@code out}. Slots deferred from the
+     * previous tick (or just woken) come first, in the order they were deferred; the
+     * rest are grouped by chunk so consecutive quarries touch the same chunks.
+     * Collected slots are unscheduled until {@link #scheduleIn} or {@link #defer}.
+     */
+    void collectDue(int tick, IntArrayList out) {
+        int carried = wheel.advance(tick, out);
+        IntArrays.quickSort(out.elements(), carried, out.size(), byChunk);
+    }
+
+    /** Schedules an awake slot to run again {@code delay} ticks from now. */
+    void scheduleIn(int slot, int delay) {
+        wheel.schedule(slot, delay);
+    }
+
+    /** Puts a due slot that did not get to run at the front of the next tick. */
+    void defer(int slot) {
+        wheel.scheduleNow(slot);
+    }
+
+    boolean isRunning(int slot) {
+        return running.get(slot);
+    }
+
+    /** Running and not parked on an unloaded chunk. */
+    boolean isTickable(int slot) {
+        return running.get(slot) && !parked.get(slot);
+    }
+
+    void stop(int slot) {
+        if (running.get(slot)) {
+            running.clear(slot);
+            wheel.unschedule(slot);
+        }
+    }
+
+    /* ───────── storage ───────── */
+
+    private void allocate(int capacity) {
+        if (key == null) {
+            key = new long[capacity];
+            currentY = new int[capacity];
+            progress = new int[capacity];
+            miningProgress = new int[capacity];
+            lastServicedTick = new int[capacity];
+            originX = new int[capacity];
+            originZ = new int[capacity];
+            xSize = new int[capacity];
+            zSize = new int[capacity];
+            upgrade1Units = new int[capacity];
+            upgrade2Units = new int[capacity];
+            minChunkX = new int[capacity];
+            minChunkZ = new int[capacity];
+            chunkSpanZ = new int[capacity];
+            chunks = new LevelChunk[capacity][];
+            checkedSections = new LevelChunkSection[capacity][];
+            skippableModCount = new int[capacity][];
+            activePlan = new LayerLookahead.LayerPlan[capacity];
+            nextPlan = new LayerLookahead.LayerPlan[capacity];
+            minedEmitters = new LongArrayList[capacity];
+            emitterSections = new LongOpenHashSet[capacity];
+            config = new QuarryBlockData[capacity];
+            itemBuffers = new ItemBuffer[capacity];
+            overflowBuffers = new OverflowItemBuffer[capacity];
+            return;
+        }
+        key = Arrays.copyOf(key, capacity);
+        currentY = Arrays.copyOf(currentY, capacity);
+        progress = Arrays.copyOf(progress, capacity);
+        miningProgress = Arrays.copyOf(miningProgress, capacity);
+        lastServicedTick = Arrays.copyOf(lastServicedTick, capacity);
+        originX = Arrays.copyOf(originX, capacity);
+        originZ = Arrays.copyOf(originZ, capacity);
+        xSize = Arrays.copyOf(xSize, capacity);
+        zSize = Arrays.copyOf(zSize, capacity);
+        upgrade1Units = Arrays.copyOf(upgrade1Units, capacity);
+        upgrade2Units = Arrays.copyOf(upgrade2Units, capacity);
+        minChunkX = Arrays.copyOf(minChunkX, capacity);
+        minChunkZ = Arrays.copyOf(minChunkZ, capacity);
+        chunkSpanZ = Arrays.copyOf(chunkSpanZ, capacity);
+        chunks = Arrays.copyOf(chunks, capacity);
+        checkedSections = Arrays.copyOf(checkedSections, capacity);
+        skippableModCount = Arrays.copyOf(skippableModCount, capacity);
+        activePlan = Arrays.copyOf(activePlan, capacity);
+        nextPlan = Arrays.copyOf(nextPlan, capacity);
+        minedEmitters = Arrays.copyOf(minedEmitters, capacity);
+        emitterSections = Arrays.copyOf(emitterSections, capacity);
+        wheel.ensureCapacity(capacity);
+        config = Arrays.copyOf(config, capacity);
+        itemBuffers = Arrays.copyOf(itemBuffers, capacity);
+        overflowBuffers = Arrays.copyOf(overflowBuffers, capacity);
+    }
+}
@@ -28,7 +28,7 @@ public class QuarryStatePersistenceManager {
         savedData.setQuarryConfigsNBT(registryListNBT);
 
         // 2. Save QuarryRuntimeStates
-        Long2ObjectOpenHashMap<QuarryRuntimeState> runtimeSnapshot = cqm.getRuntimeStates();
+        Long2ObjectOpenHashMap<QuarryRuntimeState> runtimeSnapshot = cqm.snapshotRuntimeStates();
         CompoundTag runtimeStatesMapNBT = new CompoundTag();
         for (Long2ObjectOpenHashMap.Entry<QuarryRuntimeState> entry : runtimeSnapshot.long2ObjectEntrySet()) {
             long quarryKey = entry.getLongKey();
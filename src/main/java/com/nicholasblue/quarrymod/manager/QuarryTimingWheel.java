@@ -0,0 +1,131 @@
+package com.nicholasblue.quarrymod.manager;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timing wheel of quarry slots, keyed on the tick each quarry is next due.
+ *
+ * <p>One bucket per tick modulo {@link #WHEEL_SIZE}. Buckets are intrusive doubly
+ * linked lists threaded through per-slot {@code next}/{@code prev} columns, so
+ * scheduling and unscheduling are O(1) and allocation-free. Delays never exceed
+ * {@link ExcavationEngine#MAX_CREDIT_TICKS}, which is below the wheel size, so every
+ * entry is due within one revolution and no overflow level is needed.</p>
+ *
+ * <p>Besides the buckets there is a <em>carry</em> list of slots due as soon as
+ * possible: newly registered or woken quarries, and due quarries that did not get to
+ * run because the tick budget ran out. {@link #advance} hands the carry list out
+ * ahead of the buckets, so deferred quarries go first on the next tick.</p>
+ *
+ * <p>Owned by {@link QuarryRuntimeStore}. Server thread only.</p>
+ */
+final class QuarryTimingWheel {
+
+    /** Bucket count; a power of two above {@link ExcavationEngine#MAX_CREDIT_TICKS}. */
+    static final int WHEEL_SIZE = 256;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private static final int NONE = -1;
+    private static final int UNSCHEDULED = -1;
+    private static final int CARRY = -2;
+
+    private final int[] heads = new int[WHEEL_SIZE];
+    private int[] next;
+    private int[] prev;
+    /** Bucket a slot is linked into, {@link #CARRY}, or {@link #UNSCHEDULED}. */
+    private int[] bucketOf;
+
+    private final IntArrayList carry = new IntArrayList();
+    /** Last tick handed out by {@link #advance}; -1 before the first call. */
+    private int now = -1;
+
+    QuarryTimingWheel(int capacity) {
+        Arrays.fill(heads, NONE);
+        next = new int[capacity];
+        prev = new int[capacity];
+        bucketOf = new int[capacity];
+        Arrays.fill(bucketOf, UNSCHEDULED);
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= bucketOf.length) return;
+        int old = bucketOf.length;
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        bucketOf = Arrays.copyOf(bucketOf, capacity);
+        Arrays.fill(bucketOf, old, capacity, UNSCHEDULED);
+    }
+
+    /** Schedules {@code slot} to run on the next tick, unless it is already scheduled. */
+    void scheduleNow(int slot) {
+        if (bucketOf[slot] != UNSCHEDULED) return;
+        bucketOf[slot] = CARRY;
+        carry.add(slot);
+    }
+
+    /** Schedules {@code slot} to run {@code delay} ticks after the current one (1..{@link #WHEEL_SIZE}-1). */
+    void schedule(int slot, int delay) {
+        unschedule(slot);
+        int bucket = (now + Math.max(1, Math.min(delay, MASK))) & MASK;
+        int head = heads[bucket];
+        next[slot] = head;
+        prev[slot] = NONE;
+        if (head != NONE) prev[head] = slot;
+        heads[bucket] = slot;
+        bucketOf[slot] = bucket;
+    }
+
+    void unschedule(int slot) {
+        int bucket = bucketOf[slot];
+        if (bucket == UNSCHEDULED) return;
+        bucketOf[slot] = UNSCHEDULED;
+        if (bucket == CARRY) {
+            carry.rem(slot);
+            return;
+        }
+        int n = next[slot];
+        int p = prev[slot];
+        if (p != NONE) next[p] = n; else heads[bucket] = n;
+        if (n != NONE) prev[n] = p;
+    }
+
+    /**
+     * Moves to {@code tick} and collects every slot that is now due into {@code out}:
+     * the carry list first, then each bucket passed since the previous call (at most
+     * one full revolution). Collected slots are unscheduled; the caller reschedules
+     * the ones that stay awake.
+     *
+     * @return index in {@code out} where the bucket entries start (everything before is carry)
+     */
+    int advance(int tick, IntArrayList out) {
+        out.clear();
+        for (int i = 0; i < carry.size(); i++) {
+            int slot = carry.getInt(i);
+            bucketOf[slot] = UNSCHEDULED;
+            out.add(slot);
+        }
+        carry.clear();
+        int carried = out.size();
+
+        int from = now < 0 ? tick : now + 1;
+        int steps = (int) Math.min((long) tick - from + 1, WHEEL_SIZE);
+        for (int t = tick - steps + 1; t <= tick; t++) {
+            int bucket = t & MASK;
+            for (int slot = heads[bucket]; slot != NONE; slot = next[slot]) {
+                bucketOf[slot] = UNSCHEDULED;
+                out.add(slot);
+            }
+            heads[bucket] = NONE;
+        }
+        now = tick;
+        return carried;
+    }
+
+    void clear() {
+        Arrays.fill(heads, NONE);
+        Arrays.fill(bucketOf, UNSCHEDULED);
+        carry.clear();
+        now = -1;
+    }
+}
@@ -0,0 +1,113 @@
+package com.nicholasblue.quarrymod.manager;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the client-visible block changes of one tick's bulk harvesting and sends
+ * them as one packet per section, instead of registering every mined position with
+ * the chunk holder.
+ *
+ * <p>Changes are recorded in a 4096-bit mask per section. At the end of the tick each
+ * dirty section becomes a single {@link ClientboundSectionBlocksUpdatePacket} naming
+ * only its changed positions, for the players watching its chunk. One quarry changes
+ * at most {@link ExcavationEngine#MAX_BLOCKS_PER_TICK} positions a tick, far below the
+ * 4096 at which resending the whole section would break even, so there is no dense
+ * fallback. Sections nobody watches are dropped without building a packet.</p>
+ *
+ * <p>Section records are pooled, so steady-state recording allocates nothing. Server
+ * thread only.</p>
+ */
+final class SectionUpdateBatcher {
+
+    /** One dirty section: its live objects plus the mask of changed local positions. */
+    static final class SectionChanges {
+        LevelChunk chunk;
+        LevelChunkSection section;
+        long sectionKey;
+        final long[] mask = new long[4096 / 64];
+        int count;
+
+        /** Marks section-local position {@code (lx, ly, lz)} as changed. */
+        void mark(int lx, int ly, int lz) {
+            int bit = (lx << 8) | (lz << 4) | ly; // SectionPos.sectionRelativePos layout
+            long m = 1L << bit;
+            int word = bit >>> 6;
+            if ((mask[word] & m) == 0) {
+                mask[word] |= m;
+                count++;
+            }
+        }
+    }
+
+    private final Long2ObjectOpenHashMap<SectionChanges> dirty = new Long2ObjectOpenHashMap<>();
+    private final ObjectArrayList<SectionChanges> pool = new ObjectArrayList<>();
+    /** Reused; the packet copies the positions out in its constructor. */
+    private final ShortOpenHashSet positions = new ShortOpenHashSet();
+
+    /** Record for section {@code (sx, sy, sz)} of {@code chunk}; look it up once per run, then {@link SectionChanges#mark}. */
+    SectionChanges changesFor(LevelChunk chunk, LevelChunkSection section, int sx, int sy, int sz) {
+        long key = SectionPos.asLong(sx, sy, sz);
+        SectionChanges changes = dirty.get(key);
+        if (changes == null) {
+            changes = pool.isEmpty() ? new SectionChanges() : pool.pop();
+            changes.chunk = chunk;
+            changes.section = section;
+            changes.sectionKey = key;
+            dirty.put(key, changes);
+        }
+        return changes;
+    }
+
+    /** Sends everything recorded this tick and resets for the next one. */
+    void flush(ServerLevel level) {
+        if (dirty.isEmpty()) return;
+
+        for (SectionChanges changes : dirty.values()) {
+            if (changes.count == 0) {
+                release(changes);
+                continue;
+            }
+            List<ServerPlayer> watchers = level.getChunkSource().chunkMap.getPlayers(changes.chunk.getPos(), false);
+            if (!watchers.isEmpty()) {
+                ClientboundSectionBlocksUpdatePacket packet = new ClientboundSectionBlocksUpdatePacket(
+                        SectionPos.of(changes.sectionKey), positionsOf(changes), changes.section);
+                for (ServerPlayer player : watchers) player.connection.send(packet);
+            }
+            release(changes);
+        }
+
+        dirty.clear();
+    }
+
+    private ShortOpenHashSet positionsOf(SectionChanges changes) {
+        positions.clear();
+        long[] mask = changes.mask;
+        for (int word = 0; word < mask.length; word++) {
+            long bits = mask[word];
+            while (bits != 0) {
+                positions.add((short) ((word << 6) | Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+            }
+        }
+        return positions;
+    }
+
+    private void release(SectionChanges changes) {
+        Arrays.fill(changes.mask, 0L);
+        changes.count = 0;
+        changes.chunk = null;
+        changes.section = null;
+        pool.push(changes);
+    }
+}
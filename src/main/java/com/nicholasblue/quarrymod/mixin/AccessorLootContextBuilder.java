@@ -0,0 +1,14 @@
+package com.nicholasblue.quarrymod.mixin;
+
+import net.minecraft.util.RandomSource;
+import net.minecraft.world.level.storage.loot.LootContext;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/** Lets the drop resolver run a loot table with a random source of its own (see {@code DropResolver}). */
+@Mixin(LootContext.Builder.class)
+public interface AccessorLootContextBuilder {
+
+    @Accessor("random")
+    void quarrymod$setRandom(RandomSource random);
+}
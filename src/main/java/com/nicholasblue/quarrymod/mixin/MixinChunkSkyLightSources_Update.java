@@ -1,6 +1,7 @@
 package com.nicholasblue.quarrymod.mixin;
 
 import com.nicholasblue.quarrymod.suppression.GlobalSuppressionIndex;
+import com.nicholasblue.quarrymod.util.SuppressionBypass;
 import net.minecraft.world.level.lighting.ChunkSkyLightSources;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.BlockGetter;
@@ -20,6 +21,8 @@ public abstract class MixinChunkSkyLightSources_Update {
             cancellable = true)
     private void quarrymod$suppressUpdate(BlockGetter level, int x, int y, int z, CallbackInfoReturnable<Boolean> cir) {
 
+        if (SuppressionBypass.isActive()) return; // the quarry manager settling a finished layer
+
         BlockPos changedBlockPos = new BlockPos(x, y, z);
 
         if (GlobalSuppressionIndex.INSTANCE.isSuppressed(changedBlockPos)) {
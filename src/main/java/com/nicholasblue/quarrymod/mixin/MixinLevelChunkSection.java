@@ -0,0 +1,30 @@
+package com.nicholasblue.quarrymod.mixin;
+
+import com.nicholasblue.quarrymod.util.SectionModCount;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(LevelChunkSection.class)
+public abstract class MixinLevelChunkSection implements SectionModCount {
+
+    // Plain int: only full chunks on the server thread are ever compared against it.
+    @Unique
+    private int quarrymod$modCount;
+
+    @Inject(method = "setBlockState(IIILnet/minecraft/world/level/block/state/BlockState;Z)Lnet/minecraft/world/level/block/state/BlockState;",
+            at = @At("HEAD"))
+    private void countModification(int x, int y, int z, BlockState state, boolean useLocks,
+                                   CallbackInfoReturnable<BlockState> cir) {
+        quarrymod$modCount++;
+    }
+
+    @Override
+    public int quarrymod$modCount() {
+        return quarrymod$modCount;
+    }
+}
@@ -15,8 +15,6 @@ import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 
-import java.util.List;
-
 /**
  * Centralized global controller for every quarry in the world.
  *
@@ -53,6 +51,12 @@ public final class MultiThreadedCentralQuarryManager {
 
     private final ParallelQuarryPlanner planner =
             new ParallelQuarryPlanner(Runtime.getRuntime().availableProcessors());
+    private final PlanningModeController controller =
+            new PlanningModeController(Runtime.getRuntime().availableProcessors());
+    /** Plan currently being applied; may cover several ticks in lookahead mode. */
+    private QuarryPlan plan;
+    /** Reused by {@link #applyPlan}; the apply phase allocates nothing. */
+    private final BlockPos.MutableBlockPos target = new BlockPos.MutableBlockPos();
 
     private MultiThreadedCentralQuarryManager() {}
 
@@ -86,56 +90,63 @@ public final class MultiThreadedCentralQuarryManager {
         int currentTick = (int) (level.getServer().getTickCount() & 0x7FFFFFFF);
         ImmutableStatePool.INSTANCE.setCurrentTick(currentTick);
 
-        Long2ObjectOpenHashMap<QuarryBlockData> configSnapshot = registry.snapshot();
+        QuarryRegistry.View view = registry.view();
 
-        List<QuarryAction> actions = planner.planAll(configSnapshot, runtimeStates, level.getMinBuildHeight());
-        applyActions(actions, configSnapshot, level);
+        if (plan == null || plan.isExhausted(view.sortedKeys)) {
+            int count = view.sortedKeys.length;
+            PlanningModeController.Mode mode = controller.choose(count, currentTick);
+            long started = System.nanoTime();
+            plan = planner.planAll(view, runtimeStates, level.getMinBuildHeight(), mode.depth, mode.parallel);
+            controller.record(planner.lastPassPooled(), count, mode.depth, System.nanoTime() - started);
+        }
+        applyPlan(plan, view.configs, level);
+        plan.markApplied();
     }
 
-    private void applyActions(List<QuarryAction> actions,
-                              Long2ObjectOpenHashMap<QuarryBlockData> configSnapshot,
-                              ServerLevel level) {
-        for (QuarryAction action : actions) {
-            long key = action.quarryKey();
+    private void applyPlan(QuarryPlan plan,
+                           Long2ObjectOpenHashMap<QuarryBlockData> configSnapshot,
+                           ServerLevel level) {
+        BlockPos.MutableBlockPos target = this.target;
+        for (int i = 0, n = plan.size(); i < n; i++) {
+            int kind = plan.kind(i);
+            if (kind == QuarryPlan.NONE) continue;
+
+            long key = plan.key(i);
             QuarryBlockData config = configSnapshot.get(key);
             QuarryRuntimeState runtime = runtimeStates.get(key);
 
             if (config == null || runtime == null) continue;
 
-            if (action.shouldMine() && action.target() != null) {
-                //System.out.printf("[Mine] Quarry %d mining block at %s\n", key, action.target());
-                BlockState state = level.getBlockState(action.target());
+            if (kind == QuarryPlan.MINE) {
+                target.set(plan.target(i));
+                BlockState state = level.getBlockState(target);
                 Block targetBlock = state.getBlock();
 
-                //System.out.println("block name: " + state.getBlock().getName());
-
                 if (!state.isAir() && targetBlock != Blocks.BEDROCK) {
-                    level.setBlock(action.target(), Blocks.AIR.defaultBlockState(), Block.UPDATE_CLIENTS);
+                    level.setBlock(target, Blocks.AIR.defaultBlockState(), Block.UPDATE_CLIENTS);
                 }
                 runtime.advanceProgress();
-            }
-
-            if (action.layerComplete()) {
-                if (action.stopQuarry()) {
-                    //System.out.printf("[Apply] Quarry %d stopped at Y=%d\n", key, runtime.getCurrentY());
-                    GlobalSuppressionIndex.INSTANCE.removeShell(
-                            config.origin, config.xSize, config.zSize,
-                            Math.max(action.nextY(), level.getMinBuildHeight()), config.startY);
-                    runtime.stop();
-                } else {
-                    //System.out.printf("[Apply] Quarry %d descending to Y=%d\n", key, action.nextY());
-
-                    GlobalSuppressionIndex.INSTANCE.descendShell(
-                            config.origin, config.xSize, config.zSize,
-                            runtime.getCurrentY(), action.nextY()
-                    );
-                    runtime.setCurrentY(action.nextY());
-                    runtime.resetProgress();
-                }
+            } else if (kind == QuarryPlan.STOP) {
+                GlobalSuppressionIndex.INSTANCE.removeShell(
+                        config.origin, config.xSize, config.zSize,
+                        plan.nextY(i), config.startY);
+                runtime.stop();
+            } else {
+                GlobalSuppressionIndex.INSTANCE.descendShell(
+                        config.origin, config.xSize, config.zSize,
+                        runtime.getCurrentY(), plan.nextY(i)
+                );
+                runtime.setCurrentY(plan.nextY(i));
+                runtime.resetProgress();
             }
         }
     }
 
+    /** Planning mode controller, for the {@code /simplequarry debug planner} command. */
+    public PlanningModeController planningController() {
+        return controller;
+    }
+
     public void shutdown() {
         planner.shutdown();
     }
@@ -2,98 +2,183 @@ package com.nicholasblue.quarrymod.multiThreadedMadness;
 
 import com.nicholasblue.quarrymod.data.QuarryBlockData;
 import com.nicholasblue.quarrymod.data.QuarryRuntimeState;
+import com.nicholasblue.quarrymod.manager.QuarryRegistry;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.core.BlockPos;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.concurrent.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Plans one tick of work for every quarry on a work-stealing {@link ForkJoinPool}.
+ *
+ * <p>The registry's sorted key array is cut into leaf ranges of
+ * {@link #SEQUENTIAL_CUTOFF} keys, each planned in a plain loop; idle workers steal
+ * leaves from busy ones. Results go straight into the reused columns of a
+ * {@link QuarryPlan}, so planning boxes nothing, shares no queue, and allocates no
+ * per-quarry objects. The leaf and root tasks themselves are kept and
+ * {@link ForkJoinTask#reinitialize() reinitialized} between passes, so a steady-state
+ * pass allocates nothing at all.</p>
+ *
+ * <p>Whether to go through the pool at all, and how many ticks to plan per pass, is
+ * decided by the caller (see {@link PlanningModeController}).</p>
+ */
+public final class ParallelQuarryPlanner {
 
+    /**
+     * Keys planned per leaf task. Planning one key is two map lookups and a few
+     * divisions (tens of nanoseconds), so a leaf needs a few hundred keys before the
+     * fork/steal overhead (around a microsecond) stops dominating.
+     */
+    static final int SEQUENTIAL_CUTOFF = 512;
 
-public final class ParallelQuarryPlanner {
-    private final ExecutorService pool;
-    private final int threadCount;
+    private final ForkJoinPool pool;
+    private final QuarryPlan plan = new QuarryPlan();
+
+    /* ───────── per-pass inputs, read by the tasks ───────── */
+    private Long2ObjectOpenHashMap<QuarryBlockData> configs;
+    private Long2ObjectOpenHashMap<QuarryRuntimeState> runtimes;
+    private int minY;
+
+    /* ───────── reused task objects ───────── */
+    private PlanLeaf[] leaves = new PlanLeaf[0];
+    private int leafCount;
+    private final PlanRoot root = new PlanRoot();
+    private boolean lastPassPooled;
 
     public ParallelQuarryPlanner(int threads) {
-        this.threadCount = threads;
-        this.pool = Executors.newFixedThreadPool(threads);
+        this.pool = new ForkJoinPool(threads);
     }
 
     /**
-     * Plan one tick's worth of work for all quarries, using dynamic load distribution.
+     * Plan {@code depth} ticks' worth of work for all quarries, on the pool if
+     * {@code parallel} and the key count exceeds one leaf, otherwise on the calling thread.
      * This method assumes:
      *  - configs and runtimes are frozen for the tick.
      *  - no other thread mutates them during planning.
-     *  - all planner threads complete before any world/state mutation occurs.
+     *  - all planner tasks complete before any world/state mutation occurs.
+     *
+     * <p>The returned plan is reused by the next call. {@link #lastPassPooled()} tells
+     * whether this pass actually went through the pool.</p>
      */
-    public List<QuarryAction> planAll(
-            Long2ObjectOpenHashMap<QuarryBlockData> configs,
-            Long2ObjectOpenHashMap<QuarryRuntimeState> runtimes, int minY
-
-    ) {
-        BlockingQueue<Long> queue = new LinkedBlockingQueue<>();
-        queue.addAll(configs.keySet());
-
-        List<Future<List<QuarryAction>>> futures = new ArrayList<>(threadCount);
-
-        for (int t = 0; t < threadCount; t++) {
-            futures.add(pool.submit(() -> {
-                List<QuarryAction> localActions = new ArrayList<>();
-                Long key;
-                while ((key = queue.poll()) != null) {
-                    QuarryBlockData config = configs.get(key);
-                    QuarryRuntimeState runtime = runtimes.get(key);
+    public QuarryPlan planAll(QuarryRegistry.View view,
+                              Long2ObjectOpenHashMap<QuarryRuntimeState> runtimes, int minY,
+                              int depth, boolean parallel) {
+        plan.reset(view.sortedKeys, depth);
+        this.configs = view.configs;
+        this.runtimes = runtimes;
+        this.minY = minY;
+        try {
+            lastPassPooled = parallel && plan.size > SEQUENTIAL_CUTOFF;
+            if (!lastPassPooled) {
+                planRange(0, plan.size); // serial: plain loop on the calling thread
+            } else {
+                prepareLeaves(plan.size);
+                root.reinitialize();
+                pool.invoke(root);
+            }
+        } finally {
+            this.configs = null;
+            this.runtimes = null;
+        }
+        return plan;
+    }
 
-                    if (config == null || runtime == null || !runtime.isRunning()) continue;
+    /** Whether the last {@link #planAll} ran on the pool rather than the calling thread. */
+    public boolean lastPassPooled() {
+        return lastPassPooled;
+    }
 
-                    QuarryAction action = planQuarryTick(key, config, runtime, minY);
-                    if (action != null) localActions.add(action);
-                }
-                return localActions;
-            }));
+    private void prepareLeaves(int size) {
+        leafCount = (size + SEQUENTIAL_CUTOFF - 1) / SEQUENTIAL_CUTOFF;
+        if (leaves.length < leafCount) {
+            PlanLeaf[] grown = Arrays.copyOf(leaves, leafCount);
+            for (int i = leaves.length; i < leafCount; i++) grown[i] = new PlanLeaf();
+            leaves = grown;
         }
-
-        List<QuarryAction> allActions = new ArrayList<>();
-        for (Future<List<QuarryAction>> future : futures) {
-            try {
-                allActions.addAll(future.get());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Planner thread interrupted", e);
-            } catch (ExecutionException e) {
-                throw new RuntimeException("Planner thread failed", e.getCause());
-            }
+        for (int i = 0; i < leafCount; i++) {
+            PlanLeaf leaf = leaves[i];
+            leaf.from = i * SEQUENTIAL_CUTOFF;
+            leaf.to = Math.min(size, leaf.from + SEQUENTIAL_CUTOFF);
+            leaf.reinitialize();
         }
-
-        return allActions;
     }
 
-    private QuarryAction planQuarryTick(long key, QuarryBlockData config, QuarryRuntimeState runtime, int minY) {
-        int progress = runtime.getProgressCounter();
-        int dx = progress % config.xSize;
-        int dz = progress / config.xSize;
+    private void planRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            planQuarryTick(i);
+        }
+    }
 
-        if (dz >= config.zSize) {
-            int nextY = runtime.getCurrentY() - 1;
-            boolean stop = nextY < minY;
+    /** Forks every leaf but the first, plans the first itself, then joins the rest. */
+    private final class PlanRoot extends RecursiveAction {
+        @Override
+        protected void compute() {
+            for (int i = 1; i < leafCount; i++) leaves[i].fork();
+            leaves[0].invoke();
+            for (int i = leafCount - 1; i >= 1; i--) leaves[i].join();
+        }
+    }
 
-            //System.out.printf("[Planner] Quarry %d layer complete at Y=%d; nextY=%d; stop=%s\n", key, runtime.getCurrentY(), nextY, stop);
+    private final class PlanLeaf extends RecursiveAction {
+        int from;
+        int to;
 
-            return new QuarryAction(key, null, false, true, Math.max(nextY, minY), stop);
+        @Override
+        protected void compute() {
+            planRange(from, to);
         }
+    }
 
-        BlockPos target = new BlockPos(
-                config.origin.getX() + dx,
-                runtime.getCurrentY(),
-                config.origin.getZ() + dz
-        );
+    /**
+     * Plans quarry {@code i}'s next {@code depth} ticks by stepping a private copy of its
+     * cursor: one position per tick, wrapping to the next row, and a tick for each
+     * descent or stop, as the single-tick path would.
+     */
+    private void planQuarryTick(int i) {
+        long key = plan.keys[i];
+        QuarryBlockData config = configs.get(key);
+        QuarryRuntimeState runtime = runtimes.get(key);
+        int depth = plan.depth;
+        if (config == null || runtime == null || !runtime.isRunning()) {
+            for (int k = 0; k < depth; k++) plan.put(i, k, QuarryPlan.NONE, 0L);
+            return;
+        }
 
-        return new QuarryAction(key, target, true, false, runtime.getCurrentY(), false);
+        int progress = runtime.getProgressCounter();
+        int y = runtime.getCurrentY();
+        boolean running = true;
+        for (int k = 0; k < depth; k++) {
+            if (!running) {
+                plan.put(i, k, QuarryPlan.NONE, 0L);
+                continue;
+            }
+            int dz = progress / config.xSize;
+            if (dz >= config.zSize) {
+                int nextY = y - 1;
+                if (nextY < minY) {
+                    plan.put(i, k, QuarryPlan.STOP, minY);
+                    running = false;
+                } else {
+                    plan.put(i, k, QuarryPlan.DESCEND, nextY);
+                    y = nextY;
+                    progress = 0;
+                }
+                continue;
+            }
+            int dx = progress % config.xSize;
+            plan.put(i, k, QuarryPlan.MINE, BlockPos.asLong(
+                    config.origin.getX() + dx,
+                    y,
+                    config.origin.getZ() + dz));
+            progress++;
+        }
     }
 
     public void shutdown() {
         pool.shutdown();
     }
 }
-
@@ -0,0 +1,148 @@
+package com.nicholasblue.quarrymod.multiThreadedMadness;
+
+/**
+ * Chooses, per tick, how {@link MultiThreadedCentralQuarryManager} plans its quarries.
+ *
+ * <p>Cost model, all in nanoseconds and smoothed with an exponential moving average:</p>
+ * <pre>
+ *   serial   ≈ n · c
+ *   parallel ≈ O + n · c / p
+ * </pre>
+ * where {@code n} is the quarry count, {@code c} the measured per-quarry planning cost,
+ * {@code O} the measured fork/join overhead and {@code p} the pool parallelism. The two
+ * lines cross at {@code n* = O / (c · (1 - 1/p))}. Below {@code n*} the workload is "low
+ * work, high counts" and serial wins; above it parallel does. Far above it
+ * ({@link #LOOKAHEAD_FACTOR}·n*) the planner also plans {@link #LOOKAHEAD_DEPTH} ticks
+ * ahead per pass, so the overhead is paid once per several ticks.
+ *
+ * <p>Switching needs the count to clear the crossover by {@link #HYSTERESIS} and the
+ * current mode to have held for {@link #MIN_DWELL_TICKS}, so a count hovering near the
+ * crossover does not flap. Every {@link #PROBE_INTERVAL_TICKS} one pass is planned the
+ * other way round, to keep the estimate for the mode not in use fresh. Both are server
+ * ticks, measured from the tick each pass is planned on, so a lookahead pass covering
+ * several ticks counts for all of them.</p>
+ *
+ * <p>Server thread only.</p>
+ */
+public final class PlanningModeController {
+
+    public enum Mode {
+        SERIAL(false, 1),
+        PARALLEL(true, 1),
+        PARALLEL_LOOKAHEAD(true, LOOKAHEAD_DEPTH);
+
+        public final boolean parallel;
+        /** Ticks of work planned per planning pass. */
+        public final int depth;
+
+        Mode(boolean parallel, int depth) {
+            this.parallel = parallel;
+            this.depth = depth;
+        }
+    }
+
+    static final int LOOKAHEAD_DEPTH = 4;
+    static final double LOOKAHEAD_FACTOR = 4.0;
+    static final double HYSTERESIS = 0.25;
+    /** Server ticks a mode is kept before switching away from it. */
+    static final int MIN_DWELL_TICKS = 40;
+    /** Server ticks between probe passes in the mode not in use. */
+    static final int PROBE_INTERVAL_TICKS = 600;
+    private static final double ALPHA = 0.1;
+
+    private final int parallelism;
+
+    /** Smoothed per-quarry planning cost {@code c}. Seeded with a conservative guess. */
+    private double costPerQuarryNanos = 60.0;
+    /** Smoothed fork/join overhead {@code O}. Seeded with a conservative guess. */
+    private double overheadNanos = 25_000.0;
+
+    private Mode mode = Mode.SERIAL;
+    private int modeSinceTick = 0;
+    private int lastProbeTick = 0;
+    private int lastCount = 0;
+    private boolean lastPassPooled = false;
+
+    public PlanningModeController(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /** Picks the planning mode for a pass planned on {@code currentTick} over {@code count} quarries. */
+    public Mode choose(int count, int currentTick) {
+        lastCount = count;
+
+        Mode wanted = target(count);
+        if (wanted != mode && currentTick - modeSinceTick >= MIN_DWELL_TICKS) {
+            mode = wanted;
+            modeSinceTick = currentTick;
+        }
+
+        if (currentTick - lastProbeTick >= PROBE_INTERVAL_TICKS && parallelism > 1 && count > 0) {
+            lastProbeTick = currentTick;
+            return mode == Mode.SERIAL ? Mode.PARALLEL : Mode.SERIAL;
+        }
+        return mode;
+    }
+
+    /**
+     * Feeds back how long one planning pass over {@code count} quarries, {@code depth}
+     * ticks deep, took. {@code pooled} is whether the pass actually ran on the pool (see
+     * {@link ParallelQuarryPlanner#lastPassPooled}); a parallel mode below one leaf of
+     * keys runs serially and is booked as serial. {@code c} is per quarry per planned
+     * tick, as a pass plans every tick it covers.
+     */
+    public void record(boolean pooled, int count, int depth, long elapsedNanos) {
+        lastPassPooled = pooled;
+        if (count == 0) return;
+        long work = (long) count * depth;
+        if (pooled) {
+            double overhead = Math.max(0.0, elapsedNanos - work * costPerQuarryNanos / parallelism);
+            overheadNanos += ALPHA * (overhead - overheadNanos);
+        } else {
+            costPerQuarryNanos += ALPHA * ((double) elapsedNanos / work - costPerQuarryNanos);
+        }
+    }
+
+    /** Quarry count above which parallel planning is predicted to win; infinite on one core. */
+    public double crossover() {
+        if (parallelism <= 1 || costPerQuarryNanos <= 0.0) return Double.POSITIVE_INFINITY;
+        return overheadNanos / (costPerQuarryNanos * (1.0 - 1.0 / parallelism));
+    }
+
+    private Mode target(int count) {
+        double crossover = crossover();
+        return switch (mode) {
+            case SERIAL -> count > crossover * (1 + HYSTERESIS) ? Mode.PARALLEL : Mode.SERIAL;
+            case PARALLEL -> count < crossover * (1 - HYSTERESIS) ? Mode.SERIAL
+                    : count > crossover * LOOKAHEAD_FACTOR * (1 + HYSTERESIS) ? Mode.PARALLEL_LOOKAHEAD
+                    : Mode.PARALLEL;
+            case PARALLEL_LOOKAHEAD -> count < crossover * LOOKAHEAD_FACTOR * (1 - HYSTERESIS)
+                    ? Mode.PARALLEL : Mode.PARALLEL_LOOKAHEAD;
+        };
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /** Whether the last recorded pass ran on the pool. */
+    public boolean lastPassPooled() {
+        return lastPassPooled;
+    }
+
+    public int lastCount() {
+        return lastCount;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public double costPerQuarryNanos() {
+        return costPerQuarryNanos;
+    }
+
+    public double overheadNanos() {
+        return overheadNanos;
+    }
+}
@@ -0,0 +1,106 @@
+package com.nicholasblue.quarrymod.multiThreadedMadness;
+
+/**
+ * Tick-scoped action buffer: one tick's (or one lookahead pass's) planned work as two
+ * primitive columns, indexed by the position of each quarry in the registry's sorted
+ * key array (the quarry's slot for this plan) and the plan tick.
+ *
+ * <ul>
+ *   <li>{@code flags[i · depth + k]}: action kind of quarry {@code i} on plan tick
+ *       {@code k}.</li>
+ *   <li>{@code target[i · depth + k]}: {@code BlockPos.asLong} of the position to mine
+ *       for {@link #MINE}; the Y to descend to for {@link #DESCEND} and {@link #STOP}.</li>
+ * </ul>
+ *
+ * <p>Every planned index is written on every pass (including {@link #NONE}), so the
+ * buffer is reused as-is and never cleared or reallocated in steady state; it only
+ * grows when the quarry count does. Planner tasks write disjoint index ranges, so no
+ * synchronization is needed while planning; the fork/join barrier publishes the
+ * results to the applying thread.</p>
+ *
+ * <p>A plan may cover several ticks ({@link #depth} &gt; 1, see
+ * {@link PlanningModeController.Mode#PARALLEL_LOOKAHEAD}). Each quarry then gets one
+ * action per plan tick, exactly the sequence single-tick plans would have produced: a
+ * run continues onto the next row, and a descent is followed by mining on the new
+ * layer within the same pass. The accessors read the tick being applied
+ * ({@link #step()}).</p>
+ */
+public final class QuarryPlan {
+
+    /** Nothing to do (unknown, stopped or missing runtime). */
+    public static final int NONE = 0;
+    /** Mine a run of positions starting at the target and advance progress. */
+    public static final int MINE = 1;
+    /** Layer finished: descend to the Y held in the target column. */
+    public static final int DESCEND = 2;
+    /** Layer finished at the bottom: remove the shell and stop. */
+    public static final int STOP = 3;
+
+    long[] keys;
+    int size;
+
+    int[] flags = new int[0];
+    long[] target = new long[0];
+
+    /** Ticks of work this plan covers. */
+    int depth;
+    /** Ticks of this plan already applied. */
+    int applied;
+
+    void reset(long[] keys, int depth) {
+        this.keys = keys;
+        this.size = keys.length;
+        this.depth = depth;
+        this.applied = 0;
+        int cells = size * depth;
+        if (flags.length < cells) {
+            int capacity = Math.max(cells, flags.length * 2);
+            flags = new int[capacity];
+            target = new long[capacity];
+        }
+    }
+
+    /** Sets quarry {@code i}'s action for plan tick {@code step}. */
+    void put(int i, int step, int kind, long target) {
+        int cell = i * depth + step;
+        this.flags[cell] = kind;
+        this.target[cell] = target;
+    }
+
+    /** True once every tick the plan covers has been applied, or if it was planned for other keys. */
+    public boolean isExhausted(long[] currentKeys) {
+        return keys != currentKeys || applied >= depth;
+    }
+
+    /** Index of the plan tick to apply next. */
+    public int step() {
+        return applied;
+    }
+
+    public void markApplied() {
+        applied++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long key(int i) {
+        return keys[i];
+    }
+
+    /** Action kind of quarry {@code i} on the current plan tick. */
+    public int kind(int i) {
+        return flags[i * depth + applied];
+    }
+
+    /** Packed position to mine on the current plan tick, for {@link #MINE}. */
+    public long target(int i) {
+        return target[i * depth + applied];
+    }
+
+    /** Y to descend to (clamped to the build floor), for {@link #DESCEND} and {@link #STOP}. */
+    public int nextY(int i) {
+        return (int) target[i * depth + applied];
+    }
+}
@@ -0,0 +1,17 @@
+package com.nicholasblue.quarrymod.util;
+
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+/**
+ * Modification counter mixed into {@link LevelChunkSection} (see
+ * {@code MixinLevelChunkSection}). Bumped on every {@code setBlockState}, so a reader
+ * holding a copy of the section can tell whether it is still current.
+ */
+public interface SectionModCount {
+
+    int quarrymod$modCount();
+
+    static int of(LevelChunkSection section) {
+        return ((SectionModCount) section).quarrymod$modCount();
+    }
+}
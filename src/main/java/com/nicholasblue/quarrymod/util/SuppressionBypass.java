@@ -0,0 +1,28 @@
+package com.nicholasblue.quarrymod.util;
+
+/**
+ * Lets the quarry manager run a vanilla bookkeeping call that the suppression mixins
+ * would otherwise cancel for positions inside a quarry shell. Checked by
+ * {@code MixinChunkSkyLightSources_Update}, so the manager can settle sky-light sources
+ * of finished layers itself.
+ *
+ * <p>Server thread only: set and cleared around a synchronous call, never across ticks.</p>
+ */
+public final class SuppressionBypass {
+
+    private static boolean active;
+
+    private SuppressionBypass() {}
+
+    public static void enter() {
+        active = true;
+    }
+
+    public static void exit() {
+        active = false;
+    }
+
+    public static boolean isActive() {
+        return active;
+    }
+}
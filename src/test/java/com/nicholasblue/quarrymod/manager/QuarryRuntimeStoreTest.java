@@ -0,0 +1,50 @@
+package com.nicholasblue.quarrymod.manager;
+
+import com.nicholasblue.quarrymod.data.QuarryBlockData;
+import com.nicholasblue.quarrymod.data.QuarryRuntimeState;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuarryRuntimeStoreTest {
+
+    private static QuarryBlockData quarryAt(int x, int z) {
+        return new QuarryBlockData(new BlockPos(x, 64, z), 5, 5);
+    }
+
+    /**
+     * A quarry whose block is broken by an earlier batch of the same tick is removed
+     * while its slot is still in that tick's due list; the tick loop must see it as
+     * not tickable rather than run a batch on the freed slot.
+     */
+    @Test
+    void slotRemovedMidTickIsNotTickable() {
+        QuarryRuntimeStore store = new QuarryRuntimeStore();
+        QuarryBlockData first = quarryAt(0, 0);
+        QuarryBlockData second = quarryAt(2, 2); // inside the first quarry's footprint
+        int firstSlot = store.add(first, new QuarryRuntimeState(first.startY, 0, true));
+        int secondSlot = store.add(second, new QuarryRuntimeState(second.startY, 0, true));
+
+        IntArrayList due = new IntArrayList();
+        store.collectDue(1, due);
+        assertTrue(due.contains(firstSlot));
+        assertTrue(due.contains(secondSlot));
+
+        IntArrayList ran = new IntArrayList();
+        for (int i = 0; i < due.size(); i++) {
+            int slot = due.getInt(i);
+            if (!store.isTickable(slot)) continue;
+            ran.add(slot);
+            if (slot == firstSlot) {
+                assertNotNull(store.remove(second.quarryPos.asLong())); // what unregisterQuarry does
+            }
+        }
+
+        assertEquals(1, ran.size());
+        assertEquals(-1, store.slotOf(second.quarryPos.asLong()));
+        assertFalse(store.isTickable(secondSlot));
+        assertTrue(store.isTickable(firstSlot));
+    }
+}